@@ -0,0 +1,113 @@
+package fi.seco.hfst.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.seco.hfst.SinkTransducer;
+import fi.seco.hfst.TransducerAlphabet;
+import fi.seco.hfst.TransducerHeader;
+import fi.seco.hfst.TransducerLoader;
+import fi.seco.hfst.TransducerSnapshot;
+import fi.seco.hfst.UnweightedTransducer;
+import fi.seco.hfst.WeightedTransducer;
+
+/**
+ * Measures the time to open a transducer, either by reading it from a stream
+ * into the heap, sequentially or in parallel, by mapping it (optionally
+ * decoding pages lazily) or by mapping a snapshot of it, and the time spent on
+ * the header and the alphabet alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean weighted;
+
+	@Param({ "20000" })
+	public int stems;
+
+	/** Whether the transducer has an HFST3 header and states in the transition table */
+	@Param({ "false", "true" })
+	public boolean hfst3;
+
+	private TransducerFixtures.Fixture fixture;
+	private File snapshot;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fixture = TransducerFixtures.create(weighted, stems, hfst3);
+		snapshot = File.createTempFile("snapshot", ".hfst.ol");
+		snapshot.deleteOnExit();
+		TransducerSnapshot.write(fixture.file, snapshot);
+	}
+
+	private DataInputStream open() throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(fixture.file), 65536));
+	}
+
+	@Benchmark
+	public SinkTransducer stream() throws IOException {
+		DataInputStream in = open();
+		try {
+			TransducerHeader h = new TransducerHeader(in);
+			TransducerAlphabet a = new TransducerAlphabet(in, h.getSymbolCount());
+			if (h.isWeighted()) return new WeightedTransducer(in, h, a);
+			return new UnweightedTransducer(in, h, a);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public SinkTransducer parallel() throws IOException {
+		return TransducerLoader.load(fixture.file);
+	}
+
+	@Benchmark
+	public SinkTransducer map() throws IOException {
+		return TransducerLoader.map(fixture.file);
+	}
+
+	@Benchmark
+	public SinkTransducer mapLazily() throws IOException {
+		return TransducerLoader.map(fixture.file, true);
+	}
+
+	@Benchmark
+	public SinkTransducer snapshot() throws IOException {
+		return TransducerSnapshot.map(snapshot);
+	}
+
+	@Benchmark
+	public TransducerAlphabet headerAndAlphabet() throws IOException {
+		DataInputStream in = open();
+		try {
+			TransducerHeader h = new TransducerHeader(in);
+			return new TransducerAlphabet(in, h.getSymbolCount());
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package fi.seco.hfst.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fi.seco.hfst.SinkTransducer;
+import fi.seco.hfst.Transducer.Result;
+import fi.seco.hfst.TransducerLoader;
+
+/**
+ * Measures lookup throughput in words per second over word lists of different
+ * kinds. Every benchmark analyzes the whole list of {@value #WORDS} words per
+ * invocation, so the scores are directly comparable. Run with
+ * <code>-prof gc</code> to also see the allocation rate per word.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+	static final int WORDS = 1000;
+
+	@Param({ "true", "false" })
+	public boolean weighted;
+
+	@Param({ "20000" })
+	public int stems;
+
+	/** Whether the transducer has an HFST3 header and states in the transition table */
+	@Param({ "false", "true" })
+	public boolean hfst3;
+
+	private TransducerFixtures.Fixture fixture;
+	private SinkTransducer transducer;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fixture = TransducerFixtures.create(weighted, stems, hfst3);
+		transducer = TransducerLoader.map(fixture.file);
+		if (transducer.analyze(fixture.known[0]).isEmpty() || transducer.analyze(fixture.flagged[0]).isEmpty()) throw new IllegalStateException("The generated transducer does not recognize its own words");
+	}
+
+	private void analyze(String[] words, Blackhole bh) {
+		for (String word : words) {
+			List<Result> results = transducer.analyze(word);
+			bh.consume(results);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void known(Blackhole bh) {
+		analyze(fixture.known, bh);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void unknown(Blackhole bh) {
+		analyze(fixture.unknown, bh);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void compounds(Blackhole bh) {
+		analyze(fixture.compounds, bh);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void flagged(Blackhole bh) {
+		analyze(fixture.flagged, bh);
+	}
+
+	/**
+	 * Known words from four threads sharing the transducer, for comparison
+	 * with {@link #known(Blackhole)}
+	 */
+	@Benchmark
+	@Threads(4)
+	@OperationsPerInvocation(WORDS)
+	public void knownShared(Blackhole bh) {
+		analyze(fixture.known, bh);
+	}
+}
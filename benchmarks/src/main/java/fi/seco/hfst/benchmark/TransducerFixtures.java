@@ -0,0 +1,331 @@
+package fi.seco.hfst.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import fi.seco.hfst.HfstOptimizedLookup;
+
+/**
+ * Generates small but realistically shaped transducers in the optimized lookup
+ * format, so that the benchmarks run offline without checked-in binaries.
+ * <p>
+ * The lexicon is a trie of pseudo-random stems, each followed by a shared
+ * inflection part in which every suffix sets a flag diacritic on entry and
+ * requires it on exit. Every third stem may start a compound, which sets a
+ * further flag cleared again before the inflection.
+ * <p>
+ * The transducer is written either with every state in the index table, or
+ * like hfst-fst2fst writes it, with an HFST3 header and the states whose
+ * transitions all have the same input symbol in the transition table.
+ */
+public final class TransducerFixtures {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzäö";
+	private static final String[] TAGS = { "+N", "+Sg", "+Pl", "+Nom", "+Gen", "+Ine", "#" };
+	private static final String[][] SUFFIXES = { { "", "+Sg", "+Nom", "NOM" }, { "n", "+Sg", "+Gen", "GEN" }, { "t", "+Pl", "+Nom", "NOM" }, { "ssa", "+Sg", "+Ine", "INE" } };
+	private static final String[] FLAGS = { "@P.CASE.NOM@", "@P.CASE.GEN@", "@P.CASE.INE@", "@R.CASE.NOM@", "@R.CASE.GEN@", "@R.CASE.INE@", "@P.CMP.ON@", "@C.CMP@" };
+
+	/**
+	 * A generated transducer file and word lists for looking up in it.
+	 */
+	public static final class Fixture {
+		public final File file;
+		/** Inflected forms of single stems */
+		public final String[] known;
+		/** Words not in the lexicon, some with characters not in the alphabet */
+		public final String[] unknown;
+		/** Compounds of two or three stems */
+		public final String[] compounds;
+		/** Inflected three-part compounds, passing the most flag diacritics */
+		public final String[] flagged;
+
+		Fixture(File file, String[] known, String[] unknown, String[] compounds, String[] flagged) {
+			this.file = file;
+			this.known = known;
+			this.unknown = unknown;
+			this.compounds = compounds;
+			this.flagged = flagged;
+		}
+	}
+
+	private TransducerFixtures() {}
+
+	/**
+	 * Writes a transducer with the given number of stems, with every state in
+	 * the index table, into a temporary file deleted on exit.
+	 */
+	public static Fixture create(boolean weighted, int stems) throws IOException {
+		return create(weighted, stems, false);
+	}
+
+	/**
+	 * Writes a transducer with the given number of stems into a temporary file
+	 * deleted on exit.
+	 * 
+	 * @param hfst3
+	 *            whether to write an HFST3 header and put the states with a
+	 *            single input symbol in the transition table
+	 */
+	public static Fixture create(boolean weighted, int stems, boolean hfst3) throws IOException {
+		Random random = new Random(42);
+		Set<String> lexicon = new LinkedHashSet<String>();
+		while (lexicon.size() < stems) {
+			int length = 3 + random.nextInt(7);
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < length; ++i)
+				sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+			lexicon.add(sb.toString());
+		}
+		List<String> stemList = new ArrayList<String>(lexicon);
+
+		Builder b = new Builder();
+		int inflection = b.state();
+		int end = b.state();
+		b.finals.set(end, 0.0f);
+		for (int s = 0; s < SUFFIXES.length; ++s) {
+			String[] suffix = SUFFIXES[s];
+			int state = b.state();
+			b.arc(inflection, "@P.CASE." + suffix[3] + "@", "@P.CASE." + suffix[3] + "@", state, 0.0f);
+			List<String> inputs = new ArrayList<String>();
+			for (char c : suffix[0].toCharArray())
+				inputs.add(String.valueOf(c));
+			String[] outputs = { suffix[1], suffix[2] };
+			int length = Math.max(inputs.size(), outputs.length);
+			for (int i = 0; i < length; ++i) {
+				int next = b.state();
+				b.arc(state, i < inputs.size() ? inputs.get(i) : null, i < outputs.length ? outputs[i] : null, next, 0.1f * s);
+				state = next;
+			}
+			b.arc(state, "@R.CASE." + suffix[3] + "@", null, end, 0.0f);
+		}
+		for (int i = 0; i < stemList.size(); ++i) {
+			String stem = stemList.get(i);
+			int state = 0;
+			for (char c : stem.toCharArray()) {
+				String l = String.valueOf(c);
+				int next = b.next(state, l);
+				if (next < 0) {
+					next = b.state();
+					b.arc(state, l, l, next, 0.0f);
+				}
+				state = next;
+			}
+			int tag = b.state();
+			b.arc(state, null, "+N", tag, 1.0f + (i % 10) * 0.1f);
+			b.arc(tag, "@C.CMP@", null, inflection, 0.0f);
+			if (i % 3 == 0) {
+				int compound = b.state();
+				b.arc(state, "@P.CMP.ON@", null, compound, 0.0f);
+				b.arc(compound, null, "#", 0, 0.5f);
+			}
+		}
+
+		File file = File.createTempFile(weighted ? "weighted" : "unweighted", ".hfst.ol");
+		file.deleteOnExit();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			b.write(out, weighted, hfst3);
+		} finally {
+			out.close();
+		}
+
+		List<String> known = new ArrayList<String>();
+		List<String> unknown = new ArrayList<String>();
+		List<String> compounds = new ArrayList<String>();
+		List<String> flagged = new ArrayList<String>();
+		for (int i = 0; i < 1000; ++i) {
+			known.add(stemList.get(random.nextInt(stemList.size())) + SUFFIXES[random.nextInt(SUFFIXES.length)][0]);
+			String u = stemList.get(random.nextInt(stemList.size()));
+			unknown.add(i % 2 == 0 ? u + "xq" : u.substring(0, 2) + "3" + u.substring(2));
+			String c1 = stemList.get(random.nextInt(stemList.size() / 3) * 3);
+			String c2 = stemList.get(random.nextInt(stemList.size() / 3) * 3);
+			String c3 = stemList.get(random.nextInt(stemList.size()));
+			compounds.add(i % 2 == 0 ? c1 + c3 : c1 + c2 + c3);
+			flagged.add(c1 + c2 + c3 + SUFFIXES[1 + random.nextInt(SUFFIXES.length - 1)][0]);
+		}
+		return new Fixture(file, toArray(known), toArray(unknown), toArray(compounds), toArray(flagged));
+	}
+
+	private static String[] toArray(List<String> l) {
+		return l.toArray(new String[l.size()]);
+	}
+
+	/**
+	 * Collects states and transitions and writes them in the optimized lookup
+	 * format.
+	 */
+	private static final class Builder {
+		static final class Arc {
+			final int input;
+			final int output;
+			final int target;
+			final float weight;
+
+			Arc(int input, int output, int target, float weight) {
+				this.input = input;
+				this.output = output;
+				this.target = target;
+				this.weight = weight;
+			}
+		}
+
+		final List<String> symbols = new ArrayList<String>();
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final int inputSymbols;
+		final List<List<Arc>> transitions = new ArrayList<List<Arc>>();
+		final List<Float> finals = new ArrayList<Float>();
+
+		Builder() {
+			symbols.add("@_EPSILON_SYMBOL_@");
+			for (char c : LETTERS.toCharArray())
+				symbols.add(String.valueOf(c));
+			inputSymbols = symbols.size();
+			for (String t : TAGS)
+				symbols.add(t);
+			for (String f : FLAGS)
+				symbols.add(f);
+			for (int i = 0; i < symbols.size(); ++i)
+				ids.put(symbols.get(i), i);
+			state();
+		}
+
+		int state() {
+			transitions.add(new ArrayList<Arc>());
+			finals.add(null);
+			return transitions.size() - 1;
+		}
+
+		void arc(int from, String input, String output, int to, float weight) {
+			transitions.get(from).add(new Arc(input == null ? 0 : ids.get(input), output == null ? 0 : ids.get(output), to, weight));
+		}
+
+		int next(int from, String input) {
+			int id = ids.get(input);
+			for (Arc t : transitions.get(from))
+				if (t.input == id) return t.target;
+			return -1;
+		}
+
+		/**
+		 * @return whether all transitions of the state have the same input
+		 *         symbol, epsilons and flags counting as one, so that it can be
+		 *         looked up in the transition table
+		 */
+		boolean isSimple(int state) {
+			int group = -1;
+			for (Arc t : transitions.get(state)) {
+				int g = t.input >= inputSymbols ? 0 : t.input;
+				if (group >= 0 && g != group) return false;
+				group = g;
+			}
+			return true;
+		}
+
+		void write(OutputStream out, boolean weighted, boolean hfst3) throws IOException {
+			int block = inputSymbols + 2;
+			int states = transitions.size();
+			// index table bases of indexed states, transition table positions of the others
+			long[] address = new long[states];
+			boolean[] indexed = new boolean[states];
+			int indexSize = 0;
+			List<Arc> table = new ArrayList<Arc>();
+			for (int s = 0; s < states; ++s) {
+				indexed[s] = !hfst3 || s == 0 || !isSimple(s);
+				if (indexed[s]) {
+					address[s] = indexSize;
+					indexSize += block;
+				} else {
+					address[s] = HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START + table.size();
+					for (int i = 0; i < transitions.get(s).size() + 2; ++i)
+						table.add(null);
+				}
+			}
+			indexSize += inputSymbols + 2;
+			int[] indexInputs = new int[indexSize];
+			long[] indexTargets = new long[indexSize];
+			for (int i = 0; i < indexSize; ++i) {
+				indexInputs[i] = HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+				indexTargets[i] = HfstOptimizedLookup.NO_TABLE_INDEX;
+			}
+			int transitionCount = 0;
+			for (int s = 0; s < states; ++s) {
+				if (!indexed[s]) {
+					// the finality entry, then the transitions, then a sentinel
+					int position = (int) (address[s] - HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START);
+					Float f = finals.get(s);
+					table.set(position, new Arc(HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_SYMBOL_NUMBER, f != null ? 1 : (int) HfstOptimizedLookup.NO_TABLE_INDEX, f != null ? f : 0.0f));
+					for (Arc t : transitions.get(s))
+						table.set(++position, new Arc(t.input, t.output, (int) address[t.target], t.weight));
+					transitionCount += transitions.get(s).size();
+					continue;
+				}
+				int base = (int) address[s];
+				if (finals.get(s) != null) {
+					indexInputs[base] = HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+					indexTargets[base] = weighted ? Float.floatToIntBits(finals.get(s)) & 0xFFFFFFFFl : 1;
+				}
+				for (int symbol = 0; symbol < inputSymbols; ++symbol) {
+					// epsilons and flags, in symbol order, share the group of symbol 0
+					List<Arc> group = new ArrayList<Arc>();
+					for (int candidate = symbol; candidate < (symbol == 0 ? symbols.size() : symbol + 1); ++candidate)
+						if (candidate == symbol || candidate >= inputSymbols) for (Arc t : transitions.get(s))
+							if (t.input == candidate) group.add(t);
+					if (group.isEmpty()) continue;
+					indexInputs[base + 1 + symbol] = symbol;
+					indexTargets[base + 1 + symbol] = HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START + table.size();
+					for (Arc t : group)
+						table.add(new Arc(t.input, t.output, (int) address[t.target], t.weight));
+					table.add(null);
+					transitionCount += group.size();
+				}
+			}
+			table.add(null);
+
+			if (hfst3) {
+				byte[] properties = ("version\0" + "3.3\0" + "type\0" + (weighted ? "HFST_OLW\0" : "HFST_OL\0")).getBytes(UTF8);
+				out.write("HFST\0".getBytes(UTF8));
+				out.write(properties.length & 0xFF);
+				out.write(properties.length >>> 8);
+				out.write(0);
+				out.write(properties);
+			}
+			ByteBuffer header = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+			header.putShort((short) inputSymbols).putShort((short) symbols.size());
+			header.putInt(indexSize).putInt(table.size()).putInt(states).putInt(transitionCount);
+			int[] properties = { weighted ? 1 : 0, 0, 0, 0, 1, 0, 1, 0, 0 };
+			for (int p : properties)
+				header.putInt(p);
+			out.write(header.array());
+			for (String symbol : symbols) {
+				out.write(symbol.getBytes(UTF8));
+				out.write(0);
+			}
+			ByteBuffer index = ByteBuffer.allocate(indexSize * 6).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < indexSize; ++i)
+				index.putShort((short) indexInputs[i]).putInt((int) indexTargets[i]);
+			out.write(index.array());
+			ByteBuffer entries = ByteBuffer.allocate(table.size() * (weighted ? 12 : 8)).order(ByteOrder.LITTLE_ENDIAN);
+			for (Arc t : table) {
+				if (t == null)
+					entries.putShort((short) HfstOptimizedLookup.NO_SYMBOL_NUMBER).putShort((short) HfstOptimizedLookup.NO_SYMBOL_NUMBER).putInt((int) HfstOptimizedLookup.NO_TABLE_INDEX);
+				else entries.putShort((short) t.input).putShort((short) t.output).putInt(t.target);
+				if (weighted) entries.putFloat(t == null ? 0.0f : t.weight);
+			}
+			out.write(entries.array());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package fi.seco.hfst.jfr;
+
+import fi.seco.hfst.LookupContext;
+import fi.seco.hfst.TransducerEvents;
+import jdk.jfr.EventType;
+
+/**
+ * Emits the loading phases and the slow lookups of transducers as Java Flight
+ * Recorder events, <code>fi.seco.hfst.LoadPhase</code> and
+ * <code>fi.seco.hfst.SlowLookup</code>. Installed automatically as a service
+ * when this module is on the class path; events are only created while a
+ * recording has them enabled.
+ */
+public final class JfrTransducerEvents extends TransducerEvents {
+
+	private static final EventType LOAD_PHASE = EventType.getEventType(LoadPhaseEvent.class);
+	private static final EventType SLOW_LOOKUP = EventType.getEventType(SlowLookupEvent.class);
+
+	@Override
+	public Object loadStarted(LoadPhase phase) {
+		if (!LOAD_PHASE.isEnabled()) return null;
+		LoadPhaseEvent event = new LoadPhaseEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void loadFinished(Object handle, LoadPhase phase, long bytes) {
+		LoadPhaseEvent event = (LoadPhaseEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase.name();
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object lookupStarted() {
+		if (!SLOW_LOOKUP.isEnabled()) return null;
+		SlowLookupEvent event = new SlowLookupEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void lookupFinished(Object handle, int inputLength, LookupContext ctx) {
+		SlowLookupEvent event = (SlowLookupEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.inputLength = inputLength;
+			event.steps = ctx.getSteps();
+			event.analyses = ctx.getResultCount();
+			event.truncated = ctx.isTruncated();
+			event.commit();
+		}
+	}
+}
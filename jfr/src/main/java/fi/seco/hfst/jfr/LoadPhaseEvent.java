@@ -0,0 +1,27 @@
+package fi.seco.hfst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One phase of loading a transducer, lasting as long as the phase.
+ */
+@Name("fi.seco.hfst.LoadPhase")
+@Label("Transducer Load Phase")
+@Category({ "HFST", "Loading" })
+@Description("A phase of loading a transducer: reading the header, the alphabet, the index table or the transition table, or compiling the tokenizer")
+@StackTrace(false)
+class LoadPhaseEvent extends jdk.jfr.Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Size")
+	@Description("The size of the part of the transducer read, or of the tokenizer compiled")
+	@DataAmount
+	long bytes;
+}
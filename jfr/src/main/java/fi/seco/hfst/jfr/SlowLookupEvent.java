@@ -0,0 +1,37 @@
+package fi.seco.hfst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A lookup lasting at least the threshold of the event, 1 ms unless the
+ * recording settings say otherwise, e.g.
+ * <code>-XX:StartFlightRecording:settings=hfst.jfc</code> with
+ * <code>&lt;setting name="threshold"&gt;5 ms&lt;/setting&gt;</code> for
+ * <code>fi.seco.hfst.SlowLookup</code>.
+ */
+@Name("fi.seco.hfst.SlowLookup")
+@Label("Slow Transducer Lookup")
+@Category({ "HFST", "Lookup" })
+@Description("A lookup lasting longer than the threshold")
+@Threshold("1 ms")
+class SlowLookupEvent extends jdk.jfr.Event {
+
+	@Label("Input Length")
+	@Description("The length of the input in characters, or in bytes if given as UTF-8")
+	int inputLength;
+
+	@Label("Steps")
+	@Description("The number of transitions followed")
+	long steps;
+
+	@Label("Analyses")
+	int analyses;
+
+	@Label("Truncated")
+	@Description("Whether the lookup stopped at one of its limits")
+	boolean truncated;
+}
@@ -0,0 +1,181 @@
+package fi.seco.hfst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * Analyzes whole batches of tokens in parallel, returning the results aligned
+ * with the input. On a ForkJoinPool, the batch is split recursively and
+ * balanced by work stealing; on any other ExecutorService (such as one running
+ * each task in a virtual thread) it is split into fixed chunks, taken in
+ * turn by about one task per processor. Each worker thread of a ForkJoinPool,
+ * and each task on other executors, keeps and reuses its own LookupContext.
+ */
+public class BatchAnalyzer {
+
+	private static final class Worker {
+		final LookupContext ctx = new LookupContext();
+		final ResultCollector collector;
+
+		Worker(List<String> keyTable) {
+			collector = new ResultCollector(keyTable);
+		}
+	}
+
+	private final SinkTransducer transducer;
+	private final ExecutorService executor;
+	private final int chunkSize;
+
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			return new Worker(transducer.getAlphabet());
+		}
+	};
+
+	/**
+	 * @param executor
+	 *            the executor to run the lookups in, preferably a ForkJoinPool
+	 */
+	public BatchAnalyzer(SinkTransducer transducer, ExecutorService executor) {
+		this(transducer, executor, 0);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            number of tokens analyzed in one task, or 0 to split each
+	 *            batch into about eight tasks per thread
+	 */
+	public BatchAnalyzer(SinkTransducer transducer, ExecutorService executor, int chunkSize) {
+		if (chunkSize < 0) throw new IllegalArgumentException("chunkSize must not be negative, was " + chunkSize);
+		this.transducer = transducer;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+	}
+
+	public List<List<Result>> analyze(CharSequence[] tokens) throws InterruptedException {
+		return analyze(Arrays.asList(tokens));
+	}
+
+	/**
+	 * @return the analyses of each token, each a {@link ResultList}, in the order
+	 *         of the tokens
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, in which case the tasks of
+	 *             the batch stop taking further tokens
+	 */
+	public List<List<Result>> analyze(List<? extends CharSequence> batch) throws InterruptedException {
+		final List<? extends CharSequence> tokens = batch instanceof RandomAccess ? batch : new ArrayList<CharSequence>(batch);
+		final List<Result>[] results = newResultArray(tokens.size());
+		if (tokens.isEmpty()) return Arrays.asList(results);
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		if (executor instanceof ForkJoinPool) {
+			ForkJoinPool pool = (ForkJoinPool) executor;
+			int chunk = chunkSize > 0 ? chunkSize : Math.max(1, tokens.size() / (pool.getParallelism() * 8));
+			ForkJoinTask<Void> task = pool.submit(new AnalyzeTask(tokens, results, 0, tokens.size(), chunk, cancelled));
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				throw rethrow(e.getCause());
+			} catch (InterruptedException e) {
+				cancelled.set(true);
+				task.cancel(true);
+				throw e;
+			}
+		} else {
+			int processors = Runtime.getRuntime().availableProcessors();
+			final int chunk = chunkSize > 0 ? chunkSize : Math.max(1, tokens.size() / (processors * 8));
+			final AtomicInteger next = new AtomicInteger();
+			int tasks = Math.min(processors, (tokens.size() + chunk - 1) / chunk);
+			List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+			for (int t = 0; t < tasks; ++t)
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						Worker w = new Worker(transducer.getAlphabet());
+						for (int from; !cancelled.get() && (from = next.getAndAdd(chunk)) < tokens.size();)
+							analyze(w, tokens, results, from, Math.min(tokens.size(), from + chunk));
+						return null;
+					}
+				}));
+			try {
+				for (Future<?> f : futures)
+					f.get();
+			} catch (ExecutionException e) {
+				cancel(cancelled, futures);
+				throw rethrow(e.getCause());
+			} catch (InterruptedException e) {
+				cancel(cancelled, futures);
+				throw e;
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	private static void cancel(AtomicBoolean cancelled, List<Future<?>> futures) {
+		cancelled.set(true);
+		for (Future<?> f : futures)
+			f.cancel(true);
+	}
+
+	private void analyze(Worker w, List<? extends CharSequence> tokens, List<Result>[] results, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			transducer.analyze(tokens.get(i), w.ctx, w.collector);
+			results[i] = w.collector.getResults(w.ctx);
+		}
+	}
+
+	private final class AnalyzeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends CharSequence> tokens;
+		private final List<Result>[] results;
+		private final int from;
+		private final int to;
+		private final int chunk;
+		private final AtomicBoolean cancelled;
+
+		AnalyzeTask(List<? extends CharSequence> tokens, List<Result>[] results, int from, int to, int chunk, AtomicBoolean cancelled) {
+			this.tokens = tokens;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected void compute() {
+			if (cancelled.get()) return;
+			if (to - from <= chunk) analyze(workers.get(), tokens, results, from, to);
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AnalyzeTask(tokens, results, from, mid, chunk, cancelled), new AnalyzeTask(tokens, results, mid, to, chunk, cancelled));
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Result>[] newResultArray(int size) {
+		return new List[size];
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) return (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		return new RuntimeException(t);
+	}
+}
@@ -0,0 +1,255 @@
+package fi.seco.hfst;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the n distinct corrected inputs of an approximate lookup with the
+ * fewest edits and, of those with equally many, the lowest weight, each with
+ * the cheapest path found to it. Corrections are told apart by the strings
+ * they spell, so that paths through different multicharacter symbols spelling
+ * the same string count as one, and paths spelling the empty string are
+ * ignored. Of corrections with equal cost, the ones found first are kept.
+ * <p>
+ * The corrections kept are found by their strings in an open addressing hash
+ * table of slots, so that offering one takes constant time besides the
+ * logarithmic heap updates.
+ */
+final class BestCorrections {
+	private final int n;
+	private final SymbolTable symbolTable;
+	/** Characters of the correction being added */
+	private char[] chars = new char[64];
+
+	// max-heap of slots on (edits, weight, sequence), grown up to n as needed
+	private int[] heap;
+	/** Position of each slot in the heap */
+	private int[] positions;
+	private char[][] surfaces;
+	private int[] lengths;
+	private int[] hashes;
+	/** Slot + 1 of each correction kept by the hash of its string, or 0 */
+	private int[] table;
+	private int[] edits;
+	private float[] weights;
+	private long[] sequences;
+	private int size;
+	private long sequence;
+
+	BestCorrections(int n, SymbolTable symbolTable) {
+		if (n < 1) throw new IllegalArgumentException("n must be positive, was " + n);
+		this.n = n;
+		this.symbolTable = symbolTable;
+		allocate(Math.min(n, 16));
+	}
+
+	/**
+	 * @return whether a path with the edits and weight could still yield a
+	 *         correction good enough to keep, assuming that weights are
+	 *         non-negative
+	 */
+	boolean accepts(int e, float weight) {
+		if (size < n) return true;
+		int top = heap[0];
+		return e < edits[top] || e == edits[top] && weight < weights[top];
+	}
+
+	/**
+	 * Offers the string spelled by the first <code>symbols</code> input
+	 * symbols of <code>surface</code> as a correction, keeping it if it is new
+	 * and good enough or cheaper than the path kept for it so far.
+	 */
+	void add(int[] surface, int symbols, int e, float weight) {
+		int length = 0;
+		for (int i = 0; i < symbols; ++i) {
+			char[] c = symbolTable.getChars(surface[i]);
+			if (length + c.length > chars.length) chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + c.length));
+			System.arraycopy(c, 0, chars, length, c.length);
+			length += c.length;
+		}
+		if (length == 0) return;
+		int hash = 1;
+		for (int i = 0; i < length; ++i)
+			hash = 31 * hash + chars[i];
+		int s = find(hash, length);
+		if (s >= 0) {
+			if (e < edits[s] || e == edits[s] && weight < weights[s]) {
+				edits[s] = e;
+				weights[s] = weight;
+				siftDown(positions[s]);
+			}
+			return;
+		}
+		if (!accepts(e, weight)) return;
+		int slot;
+		if (size < n) {
+			if (size == heap.length) allocate((int) Math.min(n, size * 2l));
+			slot = size;
+			heap[size] = slot;
+			positions[slot] = size++;
+		} else {
+			slot = heap[0];
+			remove(slot);
+		}
+		if (surfaces[slot] == null || surfaces[slot].length < length) surfaces[slot] = new char[Math.max(length, 16)];
+		System.arraycopy(chars, 0, surfaces[slot], 0, length);
+		lengths[slot] = length;
+		hashes[slot] = hash;
+		edits[slot] = e;
+		weights[slot] = weight;
+		sequences[slot] = sequence++;
+		insert(slot);
+		siftUp(positions[slot]);
+		siftDown(positions[slot]);
+	}
+
+	private int bucket(int hash) {
+		return (hash * 0x9E3779B9 >>> 16 ^ hash) & table.length - 1;
+	}
+
+	/**
+	 * @return the slot holding the string of the given hash and length in
+	 *         <code>chars</code>, or -1
+	 */
+	private int find(int hash, int length) {
+		for (int i = bucket(hash); table[i] != 0; i = i + 1 & table.length - 1) {
+			int slot = table[i] - 1;
+			if (hashes[slot] == hash && equals(slot, length)) return slot;
+		}
+		return -1;
+	}
+
+	private void insert(int slot) {
+		int i = bucket(hashes[slot]);
+		while (table[i] != 0)
+			i = i + 1 & table.length - 1;
+		table[i] = slot + 1;
+	}
+
+	/**
+	 * Removes the slot from the hash table, moving back the entries after it
+	 * that would no longer be found past the gap.
+	 */
+	private void remove(int slot) {
+		int mask = table.length - 1;
+		int i = bucket(hashes[slot]);
+		while (table[i] != slot + 1)
+			i = i + 1 & mask;
+		for (int j = i + 1 & mask; table[j] != 0; j = j + 1 & mask) {
+			int home = bucket(hashes[table[j] - 1]);
+			if (i <= j ? i < home && home <= j : i < home || home <= j) continue;
+			table[i] = table[j];
+			i = j;
+		}
+		table[i] = 0;
+	}
+
+	private boolean equals(int slot, int length) {
+		if (lengths[slot] != length) return false;
+		for (int i = 0; i < length; ++i)
+			if (surfaces[slot][i] != chars[i]) return false;
+		return true;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the slots kept, in ascending order of edits and weight
+	 */
+	int[] order() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; ++i)
+			order[i] = heap[i];
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return before(a, b) ? -1 : before(b, a) ? 1 : 0;
+			}
+		});
+		int[] slots = new int[size];
+		for (int i = 0; i < size; ++i)
+			slots[i] = order[i];
+		return slots;
+	}
+
+	String getSurface(int slot) {
+		return new String(surfaces[slot], 0, lengths[slot]);
+	}
+
+	int getEdits(int slot) {
+		return edits[slot];
+	}
+
+	float getWeight(int slot) {
+		return weights[slot];
+	}
+
+	private void allocate(int capacity) {
+		int[] h = new int[capacity];
+		int[] p = new int[capacity];
+		char[][] s = new char[capacity][];
+		int[] l = new int[capacity];
+		int[] c = new int[capacity];
+		int[] e = new int[capacity];
+		float[] w = new float[capacity];
+		long[] q = new long[capacity];
+		if (heap != null) {
+			System.arraycopy(heap, 0, h, 0, size);
+			System.arraycopy(positions, 0, p, 0, size);
+			System.arraycopy(surfaces, 0, s, 0, size);
+			System.arraycopy(lengths, 0, l, 0, size);
+			System.arraycopy(hashes, 0, c, 0, size);
+			System.arraycopy(edits, 0, e, 0, size);
+			System.arraycopy(weights, 0, w, 0, size);
+			System.arraycopy(sequences, 0, q, 0, size);
+		}
+		heap = h;
+		positions = p;
+		surfaces = s;
+		lengths = l;
+		hashes = c;
+		edits = e;
+		weights = w;
+		sequences = q;
+		table = new int[Integer.highestOneBit(capacity) << 2];
+		for (int slot = 0; slot < size; ++slot)
+			insert(slot);
+	}
+
+	private boolean before(int a, int b) {
+		if (edits[a] != edits[b]) return edits[a] < edits[b];
+		return weights[a] < weights[b] || (weights[a] == weights[b] && sequences[a] < sequences[b]);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!before(heap[parent], heap[i])) return;
+			swap(parent, i);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int largest = i;
+			int l = 2 * i + 1;
+			int r = l + 1;
+			if (l < size && before(heap[largest], heap[l])) largest = l;
+			if (r < size && before(heap[largest], heap[r])) largest = r;
+			if (largest == i) return;
+			swap(i, largest);
+			i = largest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int t = heap[a];
+		heap[a] = heap[b];
+		heap[b] = t;
+		positions[heap[a]] = a;
+		positions[heap[b]] = b;
+	}
+}
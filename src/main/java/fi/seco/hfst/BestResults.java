@@ -0,0 +1,181 @@
+package fi.seco.hfst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import fi.seco.hfst.Transducer.IdResult;
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * Keeps the n analyses with the lowest weight, optionally no heavier than a
+ * given maximum. Of analyses with equal weight, the ones found first are kept.
+ * <p>
+ * When used with {@link WeightedTransducer}, the lookup prunes every path
+ * whose accumulated weight already exceeds {@link #getWeightLimit()}.
+ */
+public class BestResults implements ResultSink {
+	private final List<String> keyTable;
+	private final int n;
+	private final float maxWeight;
+
+	// max-heap of slots on (weight, sequence), grown up to n as needed
+	private int[] heap;
+	private int[][] symbols;
+	private int[] lengths;
+	private float[] weights;
+	private long[] sequences;
+	private int size;
+	private long sequence;
+
+	/**
+	 * @param keyTable
+	 *            the alphabet of the transducer, see
+	 *            {@link Transducer#getAlphabet()}
+	 * @param n
+	 *            number of analyses to keep
+	 * @param maxWeight
+	 *            weight above which analyses are discarded
+	 */
+	public BestResults(List<String> keyTable, int n, float maxWeight) {
+		if (n < 1) throw new IllegalArgumentException("n must be positive, was " + n);
+		this.keyTable = keyTable;
+		this.n = n;
+		this.maxWeight = maxWeight;
+		allocate(Math.min(n, 16));
+	}
+
+	@Override
+	public boolean analysis(int[] symbols, int length, float weight) {
+		if (weight > maxWeight) return true;
+		if (size < n) {
+			if (size == heap.length) allocate((int) Math.min(n, size * 2l));
+			heap[size] = size;
+			store(size, symbols, length, weight);
+			siftUp(size++);
+		} else {
+			if (weight >= weights[heap[0]]) return true;
+			store(heap[0], symbols, length, weight);
+			siftDown(0);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the weight above which an analysis can no longer make it into
+	 *         the results
+	 */
+	@Override
+	public float getWeightLimit() {
+		if (size < n) return maxWeight;
+		return Math.nextAfter(weights[heap[0]], Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * @return the analyses kept, in ascending order of weight
+	 */
+	public List<Result> getResults() {
+		List<Result> results = new ArrayList<Result>(size);
+		for (int s : order()) {
+			List<String> syms = new ArrayList<String>(lengths[s]);
+			for (int i = 0; i < lengths[s]; ++i)
+				syms.add(keyTable.get(symbols[s][i]));
+			results.add(new Result(syms, weights[s]));
+		}
+		return results;
+	}
+
+	/**
+	 * @return the analyses kept as output symbol numbers, in ascending order
+	 *         of weight
+	 */
+	public List<IdResult> getIdResults() {
+		List<IdResult> results = new ArrayList<IdResult>(size);
+		for (int s : order())
+			results.add(new IdResult(Arrays.copyOf(symbols[s], lengths[s]), weights[s]));
+		return results;
+	}
+
+	private Integer[] order() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; ++i)
+			order[i] = heap[i];
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return before(a, b) ? -1 : before(b, a) ? 1 : 0;
+			}
+		});
+		return order;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void reset() {
+		size = 0;
+		sequence = 0;
+	}
+
+	private void allocate(int capacity) {
+		int[] h = new int[capacity];
+		int[][] s = new int[capacity][];
+		int[] l = new int[capacity];
+		float[] w = new float[capacity];
+		long[] q = new long[capacity];
+		if (heap != null) {
+			System.arraycopy(heap, 0, h, 0, size);
+			System.arraycopy(symbols, 0, s, 0, size);
+			System.arraycopy(lengths, 0, l, 0, size);
+			System.arraycopy(weights, 0, w, 0, size);
+			System.arraycopy(sequences, 0, q, 0, size);
+		}
+		heap = h;
+		symbols = s;
+		lengths = l;
+		weights = w;
+		sequences = q;
+	}
+
+	private void store(int slot, int[] s, int length, float weight) {
+		if (symbols[slot] == null || symbols[slot].length < length) symbols[slot] = new int[Math.max(length, 16)];
+		System.arraycopy(s, 0, symbols[slot], 0, length);
+		lengths[slot] = length;
+		weights[slot] = weight;
+		sequences[slot] = sequence++;
+	}
+
+	private boolean before(int a, int b) {
+		return weights[a] < weights[b] || (weights[a] == weights[b] && sequences[a] < sequences[b]);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!before(heap[parent], heap[i])) return;
+			swap(parent, i);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int largest = i;
+			int l = 2 * i + 1;
+			int r = l + 1;
+			if (l < size && before(heap[largest], heap[l])) largest = l;
+			if (r < size && before(heap[largest], heap[r])) largest = r;
+			if (largest == i) return;
+			swap(i, largest);
+			i = largest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int t = heap[a];
+		heap[a] = heap[b];
+		heap[b] = t;
+	}
+}
@@ -0,0 +1,43 @@
+package fi.seco.hfst;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream reading from (and advancing the position of) a ByteBuffer, so
+ * that the header and alphabet parsers can be used on a mapped file.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		if (!buffer.hasRemaining()) return -1;
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) return 0;
+		if (!buffer.hasRemaining()) return -1;
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		int s = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + s);
+		return s;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
@@ -0,0 +1,194 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the analyses of another transducer, keyed on the input string. The
+ * cache holds a bounded number of entries and evicts with the CLOCK algorithm:
+ * a hit only marks its entry as referenced, and on insertion the clock hand
+ * sweeps over the entries, giving a second chance to referenced ones and
+ * evicting the first unreferenced one. Hits are lock free; insertions are
+ * serialized.
+ * <p>
+ * The cached result lists, and the symbol lists in them, are unmodifiable.
+ * Lookups that hit their {@link LookupLimits} are not cached. Lookups into a
+ * ResultSink and approximate lookups are passed through uncached.
+ */
+public class CachingTransducer implements SinkTransducer {
+
+	private static final class Entry {
+		final String key;
+		final ResultList results;
+		volatile boolean referenced;
+
+		Entry(String key, ResultList results) {
+			this.key = key;
+			this.results = results;
+		}
+	}
+
+	private final SinkTransducer transducer;
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final Entry[] clock;
+	private int hand;
+	private int size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            maximum number of inputs whose analyses are kept
+	 */
+	public CachingTransducer(SinkTransducer transducer, int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+		this.transducer = transducer;
+		this.entries = new ConcurrentHashMap<String, Entry>(capacity * 4 / 3 + 1);
+		this.clock = new Entry[capacity];
+	}
+
+	@Override
+	public ResultList analyze(String input) {
+		return analyze(input, true);
+	}
+
+	/**
+	 * @param useCache
+	 *            if false, the cache is neither consulted nor updated
+	 */
+	public ResultList analyze(String input, boolean useCache) {
+		if (!useCache) return transducer.analyze(input);
+		Entry e = entries.get(input);
+		if (e != null) {
+			hits.incrementAndGet();
+			if (!e.referenced) e.referenced = true;
+			return e.results;
+		}
+		misses.incrementAndGet();
+		ResultList analyses = transducer.analyze(input);
+		if (analyses.isTruncated()) return analyses; // might be incomplete, so not cached
+		ResultList results;
+		if (analyses.isEmpty())
+			results = ResultList.EMPTY;
+		else {
+			List<Result> copy = new ArrayList<Result>(analyses.size());
+			for (Result r : analyses)
+				copy.add(new Result(Collections.unmodifiableList(r.getSymbols()), r.getWeight()));
+			results = new ResultList(Collections.unmodifiableList(copy), false);
+		}
+		insert(new Entry(input, results));
+		return results;
+	}
+
+	private synchronized void insert(Entry e) {
+		if (entries.containsKey(e.key)) return;
+		if (size < clock.length)
+			clock[size++] = e;
+		else
+			while (true) {
+				Entry victim = clock[hand];
+				if (victim.referenced)
+					victim.referenced = false;
+				else {
+					entries.remove(victim.key);
+					evictions.incrementAndGet();
+					clock[hand] = e;
+					hand = (hand + 1) % clock.length;
+					break;
+				}
+				hand = (hand + 1) % clock.length;
+			}
+		entries.put(e.key, e);
+	}
+
+	/**
+	 * Copies the characters into a String to use as the cache key.
+	 */
+	@Override
+	public ResultList analyze(CharSequence input, int offset, int length) {
+		return analyze(input.subSequence(offset, offset + length).toString());
+	}
+
+	@Override
+	public void analyze(CharSequence input, LookupContext ctx, ResultSink sink) {
+		transducer.analyze(input, ctx, sink);
+	}
+
+	@Override
+	public void analyze(CharSequence input, int offset, int length, LookupContext ctx, ResultSink sink) {
+		transducer.analyze(input, offset, length, ctx, sink);
+	}
+
+	@Override
+	public void analyze(byte[] utf8, int offset, int length, LookupContext ctx, ResultSink sink) {
+		transducer.analyze(utf8, offset, length, ctx, sink);
+	}
+
+	@Override
+	public void analyze(ByteBuffer utf8, LookupContext ctx, ResultSink sink) {
+		transducer.analyze(utf8, ctx, sink);
+	}
+
+	@Override
+	public List<Correction> correct(String input, int maxEdits, int n) {
+		return transducer.correct(input, maxEdits, n);
+	}
+
+	@Override
+	public List<Correction> correct(CharSequence input, int maxEdits, int n, LookupContext ctx) {
+		return transducer.correct(input, maxEdits, n, ctx);
+	}
+
+	@Override
+	public List<String> getAlphabet() {
+		return transducer.getAlphabet();
+	}
+
+	@Override
+	public SymbolTable getSymbolTable() {
+		return transducer.getSymbolTable();
+	}
+
+	public SinkTransducer getTransducer() {
+		return transducer;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		for (int i = 0; i < size; ++i)
+			clock[i] = null;
+		size = 0;
+		hand = 0;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return clock.length;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "CachingTransducer[size=" + size() + "/" + getCapacity() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+}
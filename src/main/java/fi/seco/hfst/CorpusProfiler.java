@@ -0,0 +1,371 @@
+package fi.seco.hfst;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a corpus through a transducer and records what each distinct input
+ * costs: the transitions followed, the analyses found and the time taken. The
+ * report lists the most expensive inputs, the distribution of the cost over
+ * the corpus and the throughput; given two transducers, e.g. the same file
+ * loaded in two ways or two versions of a lexicon, it also lists the inputs
+ * whose cost or analyses changed the most between them.
+ * <p>
+ * The corpus is read as UTF-8 and split into tokens at whitespace, so both
+ * word lists and running text work. Lookups count their analyses without
+ * materializing them, so the times are those of the traversal alone.
+ */
+public class CorpusProfiler {
+
+	/**
+	 * The cost of one distinct input, over all its occurrences in the corpus.
+	 */
+	public static final class Cost {
+		final String input;
+		int occurrences;
+		long steps;
+		int analyses;
+		boolean truncated;
+		long totalNanos;
+		long maxNanos;
+
+		Cost(String input) {
+			this.input = input;
+		}
+
+		public String getInput() {
+			return input;
+		}
+
+		public int getOccurrences() {
+			return occurrences;
+		}
+
+		/**
+		 * @return the transitions followed by one lookup of the input
+		 */
+		public long getSteps() {
+			return steps;
+		}
+
+		public int getAnalyses() {
+			return analyses;
+		}
+
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @return the time taken by all lookups of the input
+		 */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMeanNanos() {
+			return totalNanos / occurrences;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+	}
+
+	/**
+	 * The costs of replaying a corpus through one transducer.
+	 */
+	public static final class Profile {
+		final String name;
+		final Map<String, Cost> costs = new LinkedHashMap<String, Cost>();
+		final LookupMetrics metrics = new LookupMetrics();
+		/** Lookups per step count, by powers of two as in LookupMetrics */
+		final long[] stepHistogram = new long[64];
+		long tokens;
+		long nanos;
+
+		Profile(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the cost of each distinct input, in order of first
+		 *         occurrence
+		 */
+		public Map<String, Cost> getCosts() {
+			return Collections.unmodifiableMap(costs);
+		}
+
+		/**
+		 * @return the latencies and counters of all the lookups
+		 */
+		public LookupMetrics getMetrics() {
+			return metrics;
+		}
+
+		public long getTokenCount() {
+			return tokens;
+		}
+
+		/**
+		 * @return the time taken by the whole replay
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public double getTokensPerSecond() {
+			return nanos > 0 ? tokens * 1e9 / nanos : 0;
+		}
+	}
+
+	/** The order of inputs in the top list */
+	public static enum Order {
+		/** transitions followed per lookup */
+		STEPS,
+		/** mean time per lookup */
+		TIME,
+		/** time taken by all occurrences, i.e. what caching would save */
+		TOTAL,
+		/** analyses found */
+		ANALYSES
+	}
+
+	private final int warmups;
+
+	/**
+	 * @param warmups
+	 *            number of times to replay the corpus unrecorded first, to
+	 *            let the JIT compile the lookup
+	 */
+	public CorpusProfiler(int warmups) {
+		if (warmups < 0) throw new IllegalArgumentException("warmups must not be negative, was " + warmups);
+		this.warmups = warmups;
+	}
+
+	/**
+	 * @return the tokens of the corpus, split at whitespace
+	 */
+	public static List<String> readTokens(InputStream in) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+		List<String> tokens = new ArrayList<String>();
+		for (String line; (line = r.readLine()) != null;)
+			for (String token : line.trim().split("\\s+"))
+				if (!token.isEmpty()) tokens.add(token);
+		return tokens;
+	}
+
+	public Profile profile(String name, SinkTransducer t, List<String> tokens) {
+		LookupContext ctx = new LookupContext();
+		ctx.setStats(new LookupStats());
+		ResultCounter counter = new ResultCounter();
+		for (int i = 0; i < warmups; ++i)
+			for (String token : tokens) {
+				counter.reset();
+				t.analyze(token, ctx, counter);
+			}
+		Profile p = new Profile(name);
+		long start = System.nanoTime();
+		for (String token : tokens) {
+			counter.reset();
+			long begin = System.nanoTime();
+			t.analyze(token, ctx, counter);
+			long nanos = System.nanoTime() - begin;
+			p.metrics.record(ctx, nanos);
+			++p.stepHistogram[64 - Long.numberOfLeadingZeros(ctx.getSteps())];
+			Cost c = p.costs.get(token);
+			if (c == null) {
+				c = new Cost(token);
+				c.steps = ctx.getSteps();
+				c.analyses = ctx.getResultCount();
+				c.truncated = ctx.isTruncated();
+				p.costs.put(token, c);
+			}
+			++c.occurrences;
+			c.totalNanos += nanos;
+			c.maxNanos = Math.max(c.maxNanos, nanos);
+		}
+		p.nanos = System.nanoTime() - start;
+		p.tokens = tokens.size();
+		return p;
+	}
+
+	/**
+	 * @return the n most expensive inputs by the order, most expensive first
+	 */
+	public static List<Cost> top(Profile p, final Order order, int n) {
+		List<Cost> costs = new ArrayList<Cost>(p.costs.values());
+		Collections.sort(costs, new Comparator<Cost>() {
+			@Override
+			public int compare(Cost a, Cost b) {
+				return Long.compare(key(b), key(a));
+			}
+
+			private long key(Cost c) {
+				switch (order) {
+				case TIME:
+					return c.getMeanNanos();
+				case TOTAL:
+					return c.totalNanos;
+				case ANALYSES:
+					return c.analyses;
+				default:
+					return c.steps;
+				}
+			}
+		});
+		return costs.subList(0, Math.min(n, costs.size()));
+	}
+
+	/**
+	 * Prints the throughput, the cost distribution and the n most expensive
+	 * inputs.
+	 */
+	public static void report(Profile p, Order order, int n, PrintStream out) {
+		LookupMetrics m = p.metrics;
+		out.printf("== %s%n", p.name);
+		out.printf("%d tokens, %d distinct, %d unknown (%.1f%%), %d truncated%n", p.tokens, p.costs.size(), m.getEmptyCount(), percent(m.getEmptyCount(), p.tokens), m.getTruncatedCount());
+		out.printf("%.3f s, %.0f tokens/s, %.1f steps and %.2f analyses per token%n", p.nanos / 1e9, p.getTokensPerSecond(), (double) m.getStepCount() / Math.max(1, p.tokens), (double) m.getAnalysisCount() / Math.max(1, p.tokens));
+		out.printf("%.1f epsilon and %.1f flag diacritic transitions (%.1f blocked) and %.1f dead ends per token, depth at most %d%n", (double) m.getEpsilonCount() / Math.max(1, p.tokens), (double) m.getFlagCount() / Math.max(1, p.tokens), (double) m.getFlagFailureCount() / Math.max(1, p.tokens), (double) m.getDeadEndCount() / Math.max(1, p.tokens), m.getMaxDepth());
+		out.printf("latency: mean %.2f us, p50 %.2f us, p99 %.2f us, p99.9 %.2f us, max %.2f us%n", m.getMeanLatencyMicros(), m.getMedianLatencyMicros(), m.getLatency99thPercentileMicros(), m.getLatency999thPercentileMicros(), m.getMaxLatencyMicros());
+		out.println("steps per token:");
+		long below = 0;
+		for (int b = 0; b < p.stepHistogram.length; ++b) {
+			if (p.stepHistogram[b] == 0) continue;
+			below += p.stepHistogram[b];
+			out.printf("  < %-10d %10d %6.2f%% %7.2f%% cumulative%n", 1l << b, p.stepHistogram[b], percent(p.stepHistogram[b], p.tokens), percent(below, p.tokens));
+		}
+		out.printf("top %d by %s:%n", n, order.name().toLowerCase());
+		out.printf("  %10s %9s %8s %10s %12s  %s%n", "steps", "analyses", "count", "mean us", "total us", "input");
+		for (Cost c : top(p, order, n))
+			out.printf("  %10d %9d %8d %10.2f %12.1f  %s%s%n", c.steps, c.analyses, c.occurrences, c.getMeanNanos() / 1e3, c.totalNanos / 1e3, c.input, c.truncated ? " (truncated)" : "");
+	}
+
+	/**
+	 * Prints the throughput of both profiles of the same corpus side by side,
+	 * the inputs whose number of analyses differs and the n inputs whose step
+	 * count grew the most from the first to the second.
+	 */
+	public static void compare(Profile a, Profile b, int n, PrintStream out) {
+		out.printf("== %s vs %s%n", a.name, b.name);
+		out.printf("  %-20s %14s %14s%n", "", "first", "second");
+		out.printf("  %-20s %14.0f %14.0f%n", "tokens/s", a.getTokensPerSecond(), b.getTokensPerSecond());
+		out.printf("  %-20s %14d %14d%n", "steps", a.metrics.getStepCount(), b.metrics.getStepCount());
+		out.printf("  %-20s %14d %14d%n", "analyses", a.metrics.getAnalysisCount(), b.metrics.getAnalysisCount());
+		out.printf("  %-20s %14d %14d%n", "unknown", a.metrics.getEmptyCount(), b.metrics.getEmptyCount());
+		out.printf("  %-20s %14.2f %14.2f%n", "p99 us", a.metrics.getLatency99thPercentileMicros(), b.metrics.getLatency99thPercentileMicros());
+		final Map<String, Long> growth = new HashMap<String, Long>();
+		List<Cost> changed = new ArrayList<Cost>();
+		List<Cost> grown = new ArrayList<Cost>();
+		for (Cost ca : a.costs.values()) {
+			Cost cb = b.costs.get(ca.input);
+			if (cb == null) continue;
+			if (ca.analyses != cb.analyses) changed.add(cb);
+			if (cb.steps > ca.steps) {
+				growth.put(ca.input, cb.steps - ca.steps);
+				grown.add(cb);
+			}
+		}
+		out.printf("%d inputs with a different number of analyses%n", changed.size());
+		for (Cost c : changed.subList(0, Math.min(n, changed.size())))
+			out.printf("  %9d -> %-9d %s%n", a.costs.get(c.input).analyses, c.analyses, c.input);
+		Collections.sort(grown, new Comparator<Cost>() {
+			@Override
+			public int compare(Cost x, Cost y) {
+				return growth.get(y.input).compareTo(growth.get(x.input));
+			}
+		});
+		out.printf("%d inputs taking more steps, top %d:%n", grown.size(), n);
+		for (Cost c : grown.subList(0, Math.min(n, grown.size())))
+			out.printf("  %9d -> %-9d %s%n", a.costs.get(c.input).steps, c.steps, c.input);
+	}
+
+	private static double percent(long part, long whole) {
+		return whole > 0 ? 100.0 * part / whole : 0;
+	}
+
+	/**
+	 * Loads the transducer file in the given way: <code>map</code>,
+	 * <code>lazy</code>, <code>load</code> or <code>stream</code>.
+	 */
+	static SinkTransducer open(File file, String mode) throws IOException {
+		if (mode.equals("map")) return TransducerLoader.map(file);
+		if (mode.equals("lazy")) return TransducerLoader.map(file, true);
+		if (mode.equals("load")) return TransducerLoader.load(file);
+		if (!mode.equals("stream")) throw new IllegalArgumentException("Unknown loading mode " + mode);
+		try (InputStream in = new FileInputStream(file)) {
+			return TransducerLoader.read(in);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java fi.seco.hfst.CorpusProfiler [-n TOP] [-by steps|time|total|analyses] [-w WARMUPS] [-m MODE] FILE [[-m MODE] FILE2] CORPUS");
+		System.err.println("  -n TOP      number of inputs to list, 20 by default");
+		System.err.println("  -by ORDER   what makes an input expensive, steps by default");
+		System.err.println("  -w WARMUPS  number of unrecorded replays first, 1 by default");
+		System.err.println("  -m MODE     how to load the next transducer: map (default), lazy, load or stream");
+		System.err.println("  CORPUS      word list or text file, or - for standard input");
+		System.exit(1);
+	}
+
+	public static void main(String[] argv) throws IOException {
+		int n = 20;
+		int warmups = 1;
+		Order order = Order.STEPS;
+		String mode = "map";
+		List<String> files = new ArrayList<String>();
+		List<String> modes = new ArrayList<String>();
+		try {
+			for (int i = 0; i < argv.length; ++i)
+				if (argv[i].equals("-n") && i + 1 < argv.length)
+					n = Integer.parseInt(argv[++i]);
+				else if (argv[i].equals("-by") && i + 1 < argv.length)
+					order = Order.valueOf(argv[++i].toUpperCase());
+				else if (argv[i].equals("-w") && i + 1 < argv.length)
+					warmups = Integer.parseInt(argv[++i]);
+				else if (argv[i].equals("-m") && i + 1 < argv.length)
+					mode = argv[++i];
+				else if (argv[i].startsWith("-") && !argv[i].equals("-"))
+					usage();
+				else {
+					files.add(argv[i]);
+					modes.add(mode);
+					mode = "map";
+				}
+		} catch (IllegalArgumentException e) {
+			usage();
+		}
+		if (files.size() < 2 || files.size() > 3 || n < 0 || warmups < 0) usage();
+		String corpus = files.get(files.size() - 1);
+		List<String> tokens;
+		try (InputStream in = corpus.equals("-") ? System.in : new FileInputStream(corpus)) {
+			tokens = readTokens(in);
+		}
+		CorpusProfiler profiler = new CorpusProfiler(warmups);
+		List<Profile> profiles = new ArrayList<Profile>();
+		for (int i = 0; i < files.size() - 1; ++i) {
+			SinkTransducer t = open(new File(files.get(i)), modes.get(i));
+			Profile p = profiler.profile(files.get(i) + " (" + modes.get(i) + ")", t, tokens);
+			report(p, order, n, System.out);
+			System.out.println();
+			profiles.add(p);
+		}
+		if (profiles.size() == 2) compare(profiles.get(0), profiles.get(1), n, System.out);
+	}
+}
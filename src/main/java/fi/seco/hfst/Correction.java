@@ -0,0 +1,70 @@
+package fi.seco.hfst;
+
+import java.util.Comparator;
+import java.util.List;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * A word of the transducer within a number of edits of the input of an
+ * approximate lookup, with its analyses.
+ *
+ * @see SinkTransducer#correct(String, int, int)
+ */
+public final class Correction {
+	/** By edits, then by weight */
+	static final Comparator<Correction> ORDER = new Comparator<Correction>() {
+		@Override
+		public int compare(Correction a, Correction b) {
+			if (a.edits != b.edits) return a.edits < b.edits ? -1 : 1;
+			return Float.compare(a.weight, b.weight);
+		}
+	};
+
+	private final String surface;
+	private final int edits;
+	private final float weight;
+	private final List<Result> analyses;
+
+	public Correction(String surface, int edits, float weight, List<Result> analyses) {
+		this.surface = surface;
+		this.edits = edits;
+		this.weight = weight;
+		this.analyses = analyses;
+	}
+
+	/**
+	 * @return the corrected input
+	 */
+	public String getSurface() {
+		return surface;
+	}
+
+	/**
+	 * @return the number of input symbols inserted, deleted, substituted or
+	 *         transposed to get from the input to the correction
+	 */
+	public int getEdits() {
+		return edits;
+	}
+
+	/**
+	 * @return the weight of the lightest analysis, or 1 if unweighted
+	 */
+	public float getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the analyses of the correction, as given by
+	 *         {@link Transducer#analyze(String)}
+	 */
+	public List<Result> getAnalyses() {
+		return analyses;
+	}
+
+	@Override
+	public String toString() {
+		return surface + " (" + edits + "): " + analyses;
+	}
+}
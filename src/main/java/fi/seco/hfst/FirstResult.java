@@ -0,0 +1,50 @@
+package fi.seco.hfst;
+
+/**
+ * Keeps a copy of the symbol numbers and weight of the first analysis found and
+ * stops the lookup there. Can be reset and reused between lookups, in which
+ * case it only allocates when an analysis is longer than any seen before.
+ */
+public class FirstResult implements ResultSink {
+	private int[] symbols = new int[16];
+	private int length = -1;
+	private float weight;
+
+	@Override
+	public boolean analysis(int[] symbols, int length, float weight) {
+		if (this.symbols.length < length) this.symbols = new int[Math.max(length, this.symbols.length * 2)];
+		System.arraycopy(symbols, 0, this.symbols, 0, length);
+		this.length = length;
+		this.weight = weight;
+		return false;
+	}
+
+	@Override
+	public float getWeightLimit() {
+		return Float.POSITIVE_INFINITY;
+	}
+
+	public boolean isFound() {
+		return length >= 0;
+	}
+
+	/**
+	 * @return the output symbol numbers of the analysis, of which the first
+	 *         {@link #getLength()} are valid
+	 */
+	public int[] getSymbols() {
+		return symbols;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public float getWeight() {
+		return weight;
+	}
+
+	public void reset() {
+		length = -1;
+	}
+}
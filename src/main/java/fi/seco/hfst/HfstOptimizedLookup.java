@@ -1,11 +1,20 @@
 package fi.seco.hfst;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import fi.seco.hfst.Transducer.Result;
 
@@ -13,7 +22,9 @@ import fi.seco.hfst.Transducer.Result;
  * HfstRuntimeReader takes a transducer (the name of which should be the first
  * argument) of its own format (these can be generated with eg.
  * hfst-runtime-convert) and reads one word at a time from standard input;
- * output is a newline-separated list of analyses.
+ * output is a newline-separated list of analyses. With <code>-b</code>, all
+ * of the input is analyzed in blocks on several threads instead, with the
+ * output in the same format and order.
  * 
  * This is essentially a Java port of hfst-runtime-reader written by Miikka
  * Silfverberg in C++.
@@ -43,6 +54,7 @@ public class HfstOptimizedLookup {
 			} catch (IOException e) {
 				break;
 			}
+			if (str == null) break;
 			Collection<Result> analyses = t.analyze(str);
 			for (Result analysis : analyses)
 				System.out.println(str + "\t" + analysis);
@@ -51,16 +63,94 @@ public class HfstOptimizedLookup {
 		}
 	}
 
-	public static void main(String[] argv) throws IOException {
-		if (argv.length != 1) {
-			System.err.println("Usage: java HfstRuntimeReader FILE");
-			System.exit(1);
+	/** Lines read and analyzed at a time in batch mode */
+	private static final int BATCH_LINES = 65536;
+
+	/**
+	 * Analyzes every line of the input in blocks of lines, each block in
+	 * parallel on the pool, and writes the analyses in the format of
+	 * {@link #runTransducer(Transducer)} in the order of the input.
+	 * 
+	 * @return the number of lines analyzed
+	 */
+	public static long runBatch(SinkTransducer t, BufferedReader in, Writer out, ForkJoinPool pool) throws IOException, InterruptedException {
+		return runBatch(t, in, out, pool, BATCH_LINES);
+	}
+
+	/**
+	 * @param blockLines
+	 *            the number of lines read and analyzed at a time
+	 * @see #runBatch(SinkTransducer, BufferedReader, Writer, ForkJoinPool)
+	 */
+	static long runBatch(SinkTransducer t, BufferedReader in, Writer out, ForkJoinPool pool, int blockLines) throws IOException, InterruptedException {
+		BatchAnalyzer analyzer = new BatchAnalyzer(t, pool);
+		List<String> block = new ArrayList<String>(blockLines);
+		StringBuilder sb = new StringBuilder();
+		long words = 0;
+		while (true) {
+			block.clear();
+			String str;
+			while (block.size() < blockLines && (str = in.readLine()) != null)
+				block.add(str);
+			if (block.isEmpty()) break;
+			List<List<Result>> results = analyzer.analyze(block);
+			for (int i = 0; i < block.size(); ++i) {
+				sb.setLength(0);
+				str = block.get(i);
+				List<Result> analyses = results.get(i);
+				for (Result analysis : analyses)
+					sb.append(str).append('\t').append(analysis).append('\n');
+				if (analyses.isEmpty()) sb.append(str).append("\t+?\n");
+				sb.append('\n');
+				out.append(sb);
+			}
+			words += block.size();
+		}
+		out.flush();
+		return words;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java HfstOptimizedLookup FILE");
+		System.err.println("       java HfstOptimizedLookup -b [-j THREADS] FILE [INPUT [OUTPUT]]");
+		System.err.println("  -b          batch mode: analyze all input on several threads without prompting");
+		System.err.println("  -j THREADS  number of threads in batch mode, by default the number of processors");
+		System.err.println("  INPUT       file to read words from instead of standard input, or -");
+		System.err.println("  OUTPUT      file to write analyses to instead of standard output, or -");
+		System.exit(1);
+	}
+
+	private static int parseThreads(String arg) {
+		try {
+			int threads = Integer.parseInt(arg);
+			if (threads > 0) return threads;
+		} catch (NumberFormatException e) {}
+		usage();
+		return 0;
+	}
+
+	public static void main(String[] argv) throws IOException, InterruptedException {
+		boolean batch = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < argv.length; ++i)
+			if (argv[i].equals("-b"))
+				batch = true;
+			else if (argv[i].equals("-j") && i + 1 < argv.length)
+				threads = parseThreads(argv[++i]);
+			else if (argv[i].startsWith("-") && !argv[i].equals("-"))
+				usage();
+			else files.add(argv[i]);
+		if (files.isEmpty() || files.size() > (batch ? 3 : 1)) usage();
+		if (batch) {
+			runBatch(files, threads);
+			return;
 		}
 		FileInputStream transducerfile = null;
 		try {
-			transducerfile = new FileInputStream(argv[0]);
+			transducerfile = new FileInputStream(files.get(0));
 		} catch (java.io.FileNotFoundException e) {
-			System.err.println("File not found: couldn't read transducer file " + argv[0] + ".");
+			System.err.println("File not found: couldn't read transducer file " + files.get(0) + ".");
 			System.exit(1);
 		}
 		System.out.println("Reading header...");
@@ -77,4 +167,28 @@ public class HfstOptimizedLookup {
 			runTransducer(transducer);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Runs the batch mode, reporting progress on standard error only, so that
+	 * standard output holds nothing but the analyses.
+	 */
+	private static void runBatch(List<String> files, int threads) throws IOException, InterruptedException {
+		File file = new File(files.get(0));
+		if (!file.isFile()) {
+			System.err.println("File not found: couldn't read transducer file " + file + ".");
+			System.exit(1);
+		}
+		SinkTransducer t = TransducerLoader.map(file);
+		String input = files.size() > 1 ? files.get(1) : "-";
+		String output = files.size() > 2 ? files.get(2) : "-";
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(input.equals("-") ? System.in : new FileInputStream(input), "UTF-8"), 1 << 20); Writer out = new BufferedWriter(new OutputStreamWriter(output.equals("-") ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(output), "UTF-8"), 1 << 20)) {
+			long start = System.nanoTime();
+			long words = runBatch(t, in, out, pool);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.printf("Analyzed %d words in %.2f s on %d threads, %.0f words/s%n", words, seconds, threads, words / seconds);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
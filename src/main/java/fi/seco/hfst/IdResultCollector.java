@@ -0,0 +1,38 @@
+package fi.seco.hfst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fi.seco.hfst.Transducer.IdResult;
+
+/**
+ * Collects the analyses as output symbol numbers, without mapping them to
+ * Strings.
+ */
+public class IdResultCollector implements ResultSink {
+	private List<IdResult> results;
+
+	@Override
+	public boolean analysis(int[] symbols, int length, float weight) {
+		if (results == null) results = new ArrayList<IdResult>();
+		results.add(new IdResult(Arrays.copyOf(symbols, length), weight));
+		return true;
+	}
+
+	@Override
+	public float getWeightLimit() {
+		return Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the analyses collected so far, after which the collector starts
+	 *         a new list
+	 */
+	public List<IdResult> getResults() {
+		List<IdResult> r = results;
+		results = null;
+		return r == null ? Collections.<IdResult> emptyList() : r;
+	}
+}
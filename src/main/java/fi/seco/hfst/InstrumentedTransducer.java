@@ -0,0 +1,108 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Times the lookups of another transducer and records them in a
+ * {@link LookupMetrics}. Lookups returning lists run with contexts of this
+ * transducer counting their {@link LookupStats}; lookups into a ResultSink
+ * run with the caller's context, counting the details only if the caller has
+ * given it stats to count.
+ * <p>
+ * Lookups returning lists are done through the ResultSink methods of the
+ * wrapped transducer, so wrap the lookup engine itself, e.g. with a
+ * {@link CachingTransducer} around this one rather than inside it.
+ */
+public class InstrumentedTransducer implements SinkTransducer {
+
+	private final SinkTransducer transducer;
+	private final LookupMetrics metrics;
+
+	private final ThreadLocal<LookupContext> contexts = new ThreadLocal<LookupContext>() {
+		@Override
+		protected LookupContext initialValue() {
+			LookupContext ctx = new LookupContext();
+			ctx.setStats(new LookupStats());
+			return ctx;
+		}
+	};
+
+	public InstrumentedTransducer(SinkTransducer transducer, LookupMetrics metrics) {
+		this.transducer = transducer;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public ResultList analyze(String input) {
+		return analyze(input, 0, input.length());
+	}
+
+	@Override
+	public ResultList analyze(CharSequence input, int offset, int length) {
+		LookupContext ctx = contexts.get();
+		ResultCollector collector = ctx.getCollector(transducer.getAlphabet());
+		analyze(input, offset, length, ctx, collector);
+		return collector.getResults(ctx);
+	}
+
+	@Override
+	public void analyze(CharSequence input, LookupContext ctx, ResultSink sink) {
+		analyze(input, 0, input.length(), ctx, sink);
+	}
+
+	@Override
+	public void analyze(CharSequence input, int offset, int length, LookupContext ctx, ResultSink sink) {
+		long start = System.nanoTime();
+		transducer.analyze(input, offset, length, ctx, sink);
+		metrics.record(ctx, System.nanoTime() - start);
+	}
+
+	@Override
+	public void analyze(byte[] utf8, int offset, int length, LookupContext ctx, ResultSink sink) {
+		long start = System.nanoTime();
+		transducer.analyze(utf8, offset, length, ctx, sink);
+		metrics.record(ctx, System.nanoTime() - start);
+	}
+
+	@Override
+	public void analyze(ByteBuffer utf8, LookupContext ctx, ResultSink sink) {
+		long start = System.nanoTime();
+		transducer.analyze(utf8, ctx, sink);
+		metrics.record(ctx, System.nanoTime() - start);
+	}
+
+	/**
+	 * Passed through unrecorded.
+	 */
+	@Override
+	public List<Correction> correct(String input, int maxEdits, int n) {
+		return transducer.correct(input, maxEdits, n);
+	}
+
+	/**
+	 * Passed through unrecorded.
+	 */
+	@Override
+	public List<Correction> correct(CharSequence input, int maxEdits, int n, LookupContext ctx) {
+		return transducer.correct(input, maxEdits, n, ctx);
+	}
+
+	@Override
+	public List<String> getAlphabet() {
+		return transducer.getAlphabet();
+	}
+
+	@Override
+	public SymbolTable getSymbolTable() {
+		return transducer.getSymbolTable();
+	}
+
+	public SinkTransducer getTransducer() {
+		return transducer;
+	}
+
+	public LookupMetrics getMetrics() {
+		return metrics;
+	}
+}
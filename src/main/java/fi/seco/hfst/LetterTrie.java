@@ -3,6 +3,10 @@ package fi.seco.hfst;
 import com.carrotsearch.hppc.CharIntHashMap;
 import com.carrotsearch.hppc.CharObjectHashMap;
 
+/**
+ * @deprecated the transducers tokenize with {@link SymbolTokenizer}
+ */
+@Deprecated
 public class LetterTrie {
 	public class LetterTrieNode {
 		private final CharIntHashMap symbols;
@@ -0,0 +1,373 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Scratch space for one lookup at a time: the tokenized input, the output
+ * symbol buffer, the flag diacritic states and an explicit stack of traversal
+ * frames. Everything is kept in primitive arrays that grow as needed and are
+ * reused between lookups, so that a lookup finding no analyses allocates
+ * nothing once the arrays have grown to fit.
+ * <p>
+ * A context is not thread safe, but is not tied to any one transducer either:
+ * keep one per worker thread and pass it to
+ * {@link SinkTransducer#analyze(CharSequence, LookupContext, ResultSink)}.
+ */
+public final class LookupContext {
+
+	/**
+	 * Frame phases: entered, iterating epsilon transitions, checking finality
+	 * or finding the transitions for the next input symbol, iterating them
+	 */
+	static final int INIT = 0, EPSILONS = 1, FINAL = 2, SYMBOLS = 3;
+
+	final IntArrayList inputString = new IntArrayList();
+
+	int[] outputString = new int[16];
+
+	int depth;
+	int[] frameState = new int[16];
+	int[] framePhase = new int[16];
+	int[] framePosition = new int[16];
+	int[] frameInputPointer = new int[16];
+	int[] frameOutputPointer = new int[16];
+	/** Path weights, only allocated for weighted lookups */
+	float[] frameWeight;
+	int[] frameUndo = new int[16];
+
+	/**
+	 * For approximate lookups only, allocated on first use: the corrected
+	 * input of the path being followed and, per frame, its length, the edits
+	 * made so far and the input symbol a transposition has yet to consume, or
+	 * -1
+	 */
+	int[] surfaceString;
+	int[] frameSurfacePointer;
+	int[] frameEdits;
+	int[] framePending;
+
+	/**
+	 * The flag diacritic values of the path being followed, changed in place
+	 * and restored from the undo log of (feature, previous value) pairs on
+	 * backtracking
+	 */
+	private int[] flagValues = new int[0];
+	private int[] undoLog = new int[16];
+	private int undoSize;
+
+	private ResultCollector collector;
+	private LookupContext spare;
+	LookupStats stats;
+
+	private LookupLimits limits;
+	private LookupLimits activeLimits;
+	private long steps;
+	private int results;
+	private long deadline;
+	private boolean truncated;
+
+	/**
+	 * Sets the limits for the lookups done with this context, overriding the
+	 * defaults of the transducer.
+	 * 
+	 * @param limits
+	 *            the limits, or null to use the defaults of each transducer
+	 */
+	public void setLimits(LookupLimits limits) {
+		this.limits = limits;
+	}
+
+	public LookupLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * @return whether the last lookup hit one of its limits and so might have
+	 *         missed analyses
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the number of transitions followed by the last lookup
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return the number of analyses passed to the sink by the last lookup
+	 */
+	public int getResultCount() {
+		return results;
+	}
+
+	/**
+	 * Has the lookups done with this context count their work in detail.
+	 * 
+	 * @param stats
+	 *            the counters to reset and update in each lookup, or null to
+	 *            stop counting
+	 */
+	public void setStats(LookupStats stats) {
+		this.stats = stats;
+	}
+
+	public LookupStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Tokenizes the characters from offset until end and clears the frame
+	 * stack and flag state for a new lookup.
+	 *
+	 * @param defaultLimits
+	 *            the limits to use unless the context has its own
+	 * @return false if the input could not be tokenized
+	 */
+	boolean reset(CharSequence input, int offset, int end, SymbolTokenizer tokenizer, int features, LookupLimits defaultLimits) {
+		checkRange(offset, end, input.length());
+		clear(features, defaultLimits);
+		return tokenized(tokenizer.tokenize(input, offset, end, inputString));
+	}
+
+	/**
+	 * Tokenizes UTF-8 input, either from the array or from the buffer, from
+	 * offset until end, and clears the frame stack and flag state for a new
+	 * lookup.
+	 *
+	 * @see #reset(CharSequence, int, int, SymbolTokenizer, int, LookupLimits)
+	 */
+	boolean reset(byte[] array, ByteBuffer buffer, int offset, int end, SymbolTokenizer tokenizer, int features, LookupLimits defaultLimits) {
+		checkRange(offset, end, array != null ? array.length : buffer.limit());
+		clear(features, defaultLimits);
+		return tokenized(array != null ? tokenizer.tokenize(array, offset, end, inputString) : tokenizer.tokenize(buffer, offset, end, inputString));
+	}
+
+	/**
+	 * Tokenizes the characters from offset until end for an approximate
+	 * lookup, with <code>unknown</code> in place of characters that start no
+	 * input symbol, and clears the frame stack and flag state.
+	 *
+	 * @see #reset(CharSequence, int, int, SymbolTokenizer, int, LookupLimits)
+	 */
+	void resetApproximate(CharSequence input, int offset, int end, SymbolTokenizer tokenizer, int unknown, int features, LookupLimits defaultLimits) {
+		checkRange(offset, end, input.length());
+		clear(features, defaultLimits);
+		tokenizer.tokenize(input, offset, end, inputString, unknown);
+		inputString.add(HfstOptimizedLookup.NO_SYMBOL_NUMBER);
+	}
+
+	private static void checkRange(int offset, int end, int length) {
+		if (offset < 0 || end < offset || end > length) throw new IndexOutOfBoundsException("Range [" + offset + ", " + end + ") out of bounds for length " + length);
+	}
+
+	private void clear(int features, LookupLimits defaultLimits) {
+		activeLimits = limits != null ? limits : defaultLimits;
+		steps = 0;
+		results = 0;
+		truncated = false;
+		if (stats != null) stats.clear();
+		if (activeLimits.timeoutNanos > 0) deadline = System.nanoTime() + activeLimits.timeoutNanos;
+		if (flagValues.length < features) flagValues = new int[features];
+		for (int i = 0; i < features; ++i)
+			flagValues[i] = 0;
+		undoSize = 0;
+		depth = 0;
+		inputString.clear();
+	}
+
+	private boolean tokenized(boolean complete) {
+		if (!complete) inputString.clear();
+		inputString.add(HfstOptimizedLookup.NO_SYMBOL_NUMBER);
+		return inputString.get(0) != HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	}
+
+	/**
+	 * Pushes a frame for entering the state at the target, with the current
+	 * flag diacritic values and the weight of the path so far.
+	 */
+	void push(int state, int inputPointer, int outputPointer, float weight) {
+		if (frameWeight == null || frameWeight.length <= depth) {
+			float[] w = new float[frameState.length * 2];
+			if (frameWeight != null) System.arraycopy(frameWeight, 0, w, 0, depth);
+			frameWeight = w;
+		}
+		push(state, inputPointer, outputPointer);
+		frameWeight[depth - 1] = weight;
+	}
+
+	/**
+	 * Pushes a frame for entering the state at the target, with the current
+	 * flag diacritic values.
+	 */
+	void push(int state, int inputPointer, int outputPointer) {
+		if (depth == frameState.length) {
+			int size = depth * 2;
+			frameState = grow(frameState, size);
+			framePhase = grow(framePhase, size);
+			framePosition = grow(framePosition, size);
+			frameInputPointer = grow(frameInputPointer, size);
+			frameOutputPointer = grow(frameOutputPointer, size);
+			frameUndo = grow(frameUndo, size);
+		}
+		frameState[depth] = state;
+		framePhase[depth] = INIT;
+		frameInputPointer[depth] = inputPointer;
+		frameOutputPointer[depth] = outputPointer;
+		frameUndo[depth] = undoSize;
+		++depth;
+	}
+
+	/**
+	 * Pushes a frame of an approximate lookup, with the length of the
+	 * corrected input, the edits made and the input symbol still to be
+	 * consumed by a transposition, or -1.
+	 */
+	void push(int state, int inputPointer, int outputPointer, float weight, int surfacePointer, int edits, int pending) {
+		push(state, inputPointer, outputPointer, weight);
+		if (frameEdits == null) {
+			surfaceString = new int[16];
+			frameSurfacePointer = new int[frameState.length];
+			frameEdits = new int[frameState.length];
+			framePending = new int[frameState.length];
+		} else if (frameEdits.length < frameState.length) {
+			frameSurfacePointer = grow(frameSurfacePointer, frameState.length);
+			frameEdits = grow(frameEdits, frameState.length);
+			framePending = grow(framePending, frameState.length);
+		}
+		frameSurfacePointer[depth - 1] = surfacePointer;
+		frameEdits[depth - 1] = edits;
+		framePending[depth - 1] = pending;
+	}
+
+	/**
+	 * Counts a transition about to be followed against the limits, stopping
+	 * the lookup if the step limit or the deadline is reached.
+	 * 
+	 * @param outputLength
+	 *            the length of the output after the transition
+	 * @return whether the transition may be followed
+	 */
+	boolean step(int outputLength) {
+		if (outputLength > activeLimits.maxOutputLength) {
+			truncated = true;
+			return false;
+		}
+		if (++steps > activeLimits.maxSteps || activeLimits.timeoutNanos > 0 && (steps & 1023) == 0 && System.nanoTime() - deadline > 0) {
+			--steps;
+			truncated = true;
+			depth = 0;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts an analysis about to be passed to the sink against the limits,
+	 * stopping the lookup if the limit has already been reached, so that the
+	 * results are only truncated when there was one more to be had.
+	 * 
+	 * @return whether the analysis may be passed to the sink
+	 */
+	boolean countResult() {
+		if (results < activeLimits.maxResults) {
+			++results;
+			return true;
+		}
+		truncated = true;
+		depth = 0;
+		return false;
+	}
+
+	void setOutput(int pos, int symbol) {
+		if (pos == outputString.length) outputString = grow(outputString, pos * 2);
+		outputString[pos] = symbol;
+	}
+
+	void setSurface(int pos, int symbol) {
+		if (pos == surfaceString.length) surfaceString = grow(surfaceString, pos * 2);
+		surfaceString[pos] = symbol;
+	}
+
+	/**
+	 * Checks the flag diacritic operation against the current flag values
+	 * and, if it succeeds, applies it. Only an operation that changes a value
+	 * records anything in the undo log.
+	 *
+	 * @return whether the operation succeeded
+	 */
+	boolean applyFlag(FlagDiacriticOperation flag) {
+		int current = flagValues[flag.feature];
+		int value;
+		switch (flag.op) {
+		case P: // positive set
+			value = flag.value;
+			break;
+		case N: // negative set
+			value = -1 * flag.value;
+			break;
+		case R: // require
+			return flag.value == 0 ? current != 0 : current == flag.value;
+		case D: // disallow
+			return flag.value == 0 ? current == 0 : current != flag.value;
+		case C: // clear
+			value = 0;
+			break;
+		case U: // unification
+			if (current != 0 && current != flag.value && current >= 0) return false;
+			value = flag.value;
+			break;
+		default:
+			return false; // compiler sanity
+		}
+		if (value != current) {
+			if (undoSize + 2 > undoLog.length) undoLog = grow(undoLog, undoLog.length * 2);
+			undoLog[undoSize++] = flag.feature;
+			undoLog[undoSize++] = current;
+			flagValues[flag.feature] = value;
+		}
+		return true;
+	}
+
+	/**
+	 * Restores the flag values to what they were when the undo log had the
+	 * given size, i.e. when the frame recording it was pushed.
+	 */
+	void restoreFlags(int mark) {
+		while (undoSize > mark) {
+			int old = undoLog[--undoSize];
+			flagValues[undoLog[--undoSize]] = old;
+		}
+	}
+
+	/**
+	 * @return a collector, reused between calls, for the analyses of a lookup
+	 *         as a list of Results
+	 */
+	ResultCollector getCollector(List<String> keyTable) {
+		if (collector == null) collector = new ResultCollector(keyTable);
+		else collector.reset(keyTable);
+		return collector;
+	}
+
+	/**
+	 * @return a second context, reused between calls, for lookups made while
+	 *         the results of this one are still needed, with the same limits
+	 */
+	LookupContext getSpare() {
+		if (spare == null) spare = new LookupContext();
+		spare.limits = limits;
+		return spare;
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] n = new int[size];
+		System.arraycopy(array, 0, n, 0, Math.min(array.length, size));
+		return n;
+	}
+}
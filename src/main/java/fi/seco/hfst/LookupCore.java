@@ -0,0 +1,706 @@
+package fi.seco.hfst;
+
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The lookup shared by {@link WeightedTransducer} and
+ * {@link UnweightedTransducer}: the tables, the traversal and the analyze
+ * methods. The two differ only in whether transitions and final states carry
+ * weights, which is fixed per instance, so the weight arithmetic and the
+ * pruning on it are skipped entirely for unweighted transducers.
+ */
+abstract class LookupCore implements SinkTransducer {
+
+	/**
+	 * Entries per page of a lazily decoded table, as a power of two
+	 */
+	static final int PAGE_BITS = 10;
+	static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+	/**
+	 * On instantiation reads the transducer's index table and provides an
+	 * interface to it. The entries are kept interleaved in a single int array,
+	 * two ints (input symbol, target) per entry. If constructed from a
+	 * ByteBuffer, the entries are read directly from the (possibly
+	 * memory-mapped) buffer instead, or decoded from it a page at a time on
+	 * first access if lazy.
+	 */
+	static class IndexTable {
+		private final int[] ti_entries;
+		private final ByteBuffer ti_buffer;
+		private final AtomicReferenceArray<int[]> pages;
+		private final int size;
+
+		public final int getInput(int i) {
+			if (pages != null) return page(i)[(i & PAGE_MASK) << 1];
+			if (ti_buffer != null) return ti_buffer.getChar(i * 6);
+			return ti_entries[i << 1];
+		}
+
+		public final long getTarget(int i) {
+			return getRawTarget(i) & 0xFFFFFFFFl;
+		}
+
+		/**
+		 * @return the target as stored, i.e. an unsigned int in an int
+		 */
+		public final int getRawTarget(int i) {
+			if (pages != null) return page(i)[((i & PAGE_MASK) << 1) + 1];
+			if (ti_buffer != null) return ti_buffer.getInt(i * 6 + 2);
+			return ti_entries[(i << 1) + 1];
+		}
+
+		private int[] page(int i) {
+			int[] page = pages.get(i >>> PAGE_BITS);
+			return page != null ? page : decode(i >>> PAGE_BITS);
+		}
+
+		/**
+		 * Decodes a page; if another thread got there first, its page is used
+		 * and this one dropped.
+		 */
+		private int[] decode(int n) {
+			int start = n << PAGE_BITS;
+			int count = Math.min(PAGE_MASK + 1, size - start);
+			int[] page = new int[count << 1];
+			for (int j = 0; j < count; ++j) {
+				page[j << 1] = ti_buffer.getChar((start + j) * 6);
+				page[(j << 1) + 1] = ti_buffer.getInt((start + j) * 6 + 2);
+			}
+			return pages.compareAndSet(n, null, page) ? page : pages.get(n);
+		}
+
+		public final boolean isFinal(int i) {
+			return (getInput(i) == HfstOptimizedLookup.NO_SYMBOL_NUMBER && getRawTarget(i) != (int) HfstOptimizedLookup.NO_TABLE_INDEX);
+		}
+
+		/**
+		 * @return the weight of a final entry in a weighted transducer
+		 */
+		public final float getFinalWeight(int i) {
+			return Float.intBitsToFloat(getRawTarget(i));
+		}
+
+		IndexTable(DataInputStream input, int indicesCount) throws java.io.IOException {
+			Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.INDEX_TABLE);
+			ByteArray b = new ByteArray(indicesCount * 6);
+			input.readFully(b.getBytes());
+			// each index entry is a unsigned short followed by an unsigned int
+			ti_entries = new int[indicesCount << 1];
+			ti_buffer = null;
+			pages = null;
+			size = indicesCount;
+
+			int i = 0;
+			while (i < ti_entries.length) {
+				ti_entries[i++] = b.getUShort();
+				ti_entries[i++] = (int) b.getUInt();
+			}
+			TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.INDEX_TABLE, indicesCount * 6l);
+		}
+
+		/**
+		 * Uses the index table starting at the current position of the buffer
+		 * without copying it, and advances the buffer past it.
+		 *
+		 * @param lazy
+		 *            whether to decode pages of entries onto the heap on first
+		 *            access instead of reading each entry from the buffer
+		 */
+		IndexTable(ByteBuffer buffer, int indicesCount, boolean lazy) {
+			Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.INDEX_TABLE);
+			ti_buffer = TransducerLoader.slice(buffer, indicesCount * 6);
+			ti_entries = null;
+			pages = lazy ? new AtomicReferenceArray<int[]>((indicesCount + PAGE_MASK) >>> PAGE_BITS) : null;
+			size = indicesCount;
+			TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.INDEX_TABLE, indicesCount * 6l);
+		}
+
+		/**
+		 * Uses entries already decoded, two ints per entry.
+		 *
+		 * @see #decode(ByteBuffer, int[], int, int)
+		 */
+		IndexTable(int[] entries) {
+			ti_entries = entries;
+			ti_buffer = null;
+			pages = null;
+			size = entries.length >>> 1;
+		}
+
+		/**
+		 * Decodes <code>count</code> entries from the little-endian buffer,
+		 * starting at index 0 of it, into the entries from <code>first</code>
+		 * on.
+		 */
+		static void decode(ByteBuffer b, int[] entries, int first, int count) {
+			for (int j = 0, i = first << 1; j < count; ++j) {
+				entries[i++] = b.getChar(j * 6);
+				entries[i++] = b.getInt(j * 6 + 2);
+			}
+		}
+
+	}
+
+	/**
+	 * On instantiation reads the transducer's transition table and provides an
+	 * interface to it. The entries are kept interleaved in a single int array,
+	 * two ints (input and output symbol, target) per entry, plus a third for
+	 * the weight if weighted, with the input symbol in the low and the output
+	 * symbol in the high half of the first int. If constructed from a
+	 * ByteBuffer, the entries are read directly from the (possibly
+	 * memory-mapped) buffer instead, or decoded from it a page at a time on
+	 * first access if lazy.
+	 */
+	static class TransitionTable {
+		private final int[] ti_entries;
+		private final ByteBuffer ti_buffer;
+		private final AtomicReferenceArray<int[]> pages;
+		private final int size;
+		/** ints per entry in ti_entries */
+		private final int stride;
+		/** bytes per entry in ti_buffer */
+		private final int entrySize;
+
+		TransitionTable(DataInputStream input, int transitionCount, boolean weighted) throws java.io.IOException {
+			Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.TRANSITION_TABLE);
+			stride = weighted ? 3 : 2;
+			entrySize = weighted ? 12 : 8;
+			ByteArray b = new ByteArray(transitionCount * entrySize);
+			// each transition entry is two unsigned shorts and an unsigned int, and a float if weighted
+			input.readFully(b.getBytes());
+			ti_entries = new int[transitionCount * stride];
+			ti_buffer = null;
+			pages = null;
+			size = transitionCount;
+			int i = 0;
+			while (i < ti_entries.length) {
+				ti_entries[i] = b.getUShort();
+				ti_entries[i++] |= b.getUShort() << 16;
+				ti_entries[i++] = (int) b.getUInt();
+				if (weighted) ti_entries[i++] = Float.floatToRawIntBits(b.getFloat());
+			}
+			TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.TRANSITION_TABLE, (long) transitionCount * entrySize);
+		}
+
+		/**
+		 * Uses the transition table starting at the current position of the
+		 * buffer without copying it, and advances the buffer past it.
+		 *
+		 * @param lazy
+		 *            whether to decode pages of entries onto the heap on first
+		 *            access instead of reading each entry from the buffer
+		 */
+		TransitionTable(ByteBuffer buffer, int transitionCount, boolean weighted, boolean lazy) {
+			Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.TRANSITION_TABLE);
+			stride = weighted ? 3 : 2;
+			entrySize = weighted ? 12 : 8;
+			ti_buffer = TransducerLoader.slice(buffer, transitionCount * entrySize);
+			ti_entries = null;
+			pages = lazy ? new AtomicReferenceArray<int[]>((transitionCount + PAGE_MASK) >>> PAGE_BITS) : null;
+			size = transitionCount;
+			TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.TRANSITION_TABLE, (long) transitionCount * entrySize);
+		}
+
+		/**
+		 * Uses entries already decoded, two or three ints per entry.
+		 *
+		 * @see #decode(ByteBuffer, int[], int, int, boolean)
+		 */
+		TransitionTable(int[] entries, boolean weighted) {
+			stride = weighted ? 3 : 2;
+			entrySize = weighted ? 12 : 8;
+			ti_entries = entries;
+			ti_buffer = null;
+			pages = null;
+			size = entries.length / stride;
+		}
+
+		/**
+		 * Decodes <code>count</code> entries from the little-endian buffer,
+		 * starting at index 0 of it, into the entries from <code>first</code>
+		 * on.
+		 */
+		static void decode(ByteBuffer b, int[] entries, int first, int count, boolean weighted) {
+			int entrySize = weighted ? 12 : 8;
+			for (int j = 0, i = first * (weighted ? 3 : 2); j < count; ++j) {
+				int e = j * entrySize;
+				entries[i++] = b.getChar(e) | b.getChar(e + 2) << 16;
+				entries[i++] = b.getInt(e + 4);
+				if (weighted) entries[i++] = b.getInt(e + 8);
+			}
+		}
+
+		private int[] page(int pos) {
+			int[] page = pages.get(pos >>> PAGE_BITS);
+			return page != null ? page : decode(pos >>> PAGE_BITS);
+		}
+
+		/**
+		 * Decodes a page; if another thread got there first, its page is used
+		 * and this one dropped.
+		 */
+		private int[] decode(int n) {
+			int start = n << PAGE_BITS;
+			int count = Math.min(PAGE_MASK + 1, size - start);
+			int[] page = new int[count * stride];
+			for (int j = 0, i = 0; j < count; ++j) {
+				int b = (start + j) * entrySize;
+				page[i++] = ti_buffer.getChar(b) | ti_buffer.getChar(b + 2) << 16;
+				page[i++] = ti_buffer.getInt(b + 4);
+				if (stride == 3) page[i++] = ti_buffer.getInt(b + 8);
+			}
+			return pages.compareAndSet(n, null, page) ? page : pages.get(n);
+		}
+
+		public final boolean matches(int pos, int symbol) {
+			int input = getInput(pos);
+			if (input == HfstOptimizedLookup.NO_SYMBOL_NUMBER) return false;
+			if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER) return true;
+			return (input == symbol);
+		}
+
+		public final int getInput(int pos) {
+			if (pages != null) return page(pos)[(pos & PAGE_MASK) * stride] & 0xFFFF;
+			if (ti_buffer != null) return ti_buffer.getChar(pos * entrySize);
+			return ti_entries[pos * stride] & 0xFFFF;
+		}
+
+		public final int getOutput(int pos) {
+			if (pages != null) return page(pos)[(pos & PAGE_MASK) * stride] >>> 16;
+			if (ti_buffer != null) return ti_buffer.getChar(pos * entrySize + 2);
+			return ti_entries[pos * stride] >>> 16;
+		}
+
+		public final long getTarget(int pos) {
+			return getRawTarget(pos) & 0xFFFFFFFFl;
+		}
+
+		/**
+		 * @return the target as stored, i.e. an unsigned int in an int
+		 */
+		public final int getRawTarget(int pos) {
+			if (pages != null) return page(pos)[(pos & PAGE_MASK) * stride + 1];
+			if (ti_buffer != null) return ti_buffer.getInt(pos * entrySize + 4);
+			return ti_entries[pos * stride + 1];
+		}
+
+		/**
+		 * @return the weight of the entry, or 0 if the table is unweighted
+		 */
+		public final float getWeight(int pos) {
+			if (stride == 2) return 0.0f;
+			if (pages != null) return Float.intBitsToFloat(page(pos)[(pos & PAGE_MASK) * stride + 2]);
+			if (ti_buffer != null) return ti_buffer.getFloat(pos * entrySize + 8);
+			return Float.intBitsToFloat(ti_entries[pos * stride + 2]);
+		}
+
+		public final boolean isFinal(int pos) {
+			return (getInput(pos) == HfstOptimizedLookup.NO_SYMBOL_NUMBER && getOutput(pos) == HfstOptimizedLookup.NO_SYMBOL_NUMBER && getRawTarget(pos) == 1);
+		}
+
+		public final int size() {
+			return size;
+		}
+
+	}
+
+	protected final boolean weighted;
+	protected TransducerHeader header;
+	protected TransducerAlphabet alphabet;
+	protected FlagDiacriticOperation[] operations;
+	protected SymbolTokenizer tokenizer;
+	protected SymbolTable symbolTable;
+	protected IndexTable indexTable;
+	protected TransitionTable transitionTable;
+	protected LookupLimits limits;
+
+	private final ThreadLocal<LookupContext> contexts = new ThreadLocal<LookupContext>() {
+		@Override
+		protected LookupContext initialValue() {
+			return new LookupContext();
+		}
+	};
+
+	/**
+	 * @param tokenizer
+	 *            a tokenizer already compiled, or null to compile one
+	 */
+	LookupCore(TransducerHeader h, TransducerAlphabet a, boolean weighted, SymbolTokenizer tokenizer) {
+		this.weighted = weighted;
+		header = h;
+		alphabet = a;
+		operations = alphabet.getOperationTable();
+		limits = LookupLimits.forHeader(header);
+		if (tokenizer == null) {
+			Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.TOKENIZER);
+			tokenizer = new SymbolTokenizer(a.keyTable, h.getInputSymbolCount());
+			TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.TOKENIZER, tokenizer.size());
+		}
+		this.tokenizer = tokenizer;
+		symbolTable = new SymbolTable(alphabet.keyTable);
+	}
+
+	/**
+	 * Targets are unsigned ints, those at or above TRANSITION_TARGET_TABLE_START
+	 * (i.e. negative as an int) pointing to the transition table.
+	 */
+	private static int pivot(int i) {
+		return i & 0x7FFFFFFF;
+	}
+
+	/**
+	 * Traverses the transducer depth first with an explicit stack of frames,
+	 * one per state entered, in the same order the states would be visited
+	 * recursively: first the epsilon and flag transitions, then finality at the
+	 * end of input or the transitions matching the next input symbol.
+	 * <p>
+	 * Unweighted analyses all have weight 1. If the transducer is weighted,
+	 * paths heavier than the current weight limit of the sink are pruned.
+	 */
+	final void getAnalyses(LookupContext ctx, ResultSink sink) {
+		float limit = weighted ? sink.getWeightLimit() : Float.POSITIVE_INFINITY;
+		LookupStats stats = ctx.stats;
+		if (weighted)
+			ctx.push(0, 0, 0, 0.0f);
+		else ctx.push(0, 0, 0);
+		while (ctx.depth > 0) {
+			int f = ctx.depth - 1;
+			if (stats != null && ctx.depth > stats.maxDepth) stats.maxDepth = ctx.depth;
+			ctx.restoreFlags(ctx.frameUndo[f]);
+			int idx = ctx.frameState[f];
+			int index = pivot(idx);
+			switch (ctx.framePhase[f]) {
+			case LookupContext.INIT:
+				if (idx < 0) { // idx >= TRANSITION_TARGET_TABLE_START
+					ctx.framePosition[f] = index + 1;
+					ctx.framePhase[f] = LookupContext.EPSILONS;
+				} else if (indexTable.getInput(index + 1) == 0) {
+					ctx.framePosition[f] = pivot(indexTable.getRawTarget(index + 1));
+					ctx.framePhase[f] = LookupContext.EPSILONS;
+				} else ctx.framePhase[f] = LookupContext.FINAL;
+				break;
+			case LookupContext.EPSILONS: {
+				int pos = ctx.framePosition[f]++;
+				int input = transitionTable.getInput(pos);
+				FlagDiacriticOperation flag = input < operations.length ? operations[input] : null;
+				if (flag != null) {
+					if (stats != null) ++stats.flags;
+					if (ctx.applyFlag(flag))
+						enter(ctx, f, pos, ctx.frameInputPointer[f], limit);
+					else if (stats != null) ++stats.flagFailures;
+				} else if (input == 0) { // epsilon transitions
+					if (stats != null) ++stats.epsilons;
+					enter(ctx, f, pos, ctx.frameInputPointer[f], limit);
+				} else ctx.framePhase[f] = LookupContext.FINAL;
+				break;
+			}
+			case LookupContext.FINAL: {
+				int symbol = ctx.inputString.get(ctx.frameInputPointer[f]);
+				if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER) { // end of input string
+					--ctx.depth;
+					boolean isFinal = idx < 0 ? transitionTable.size() > index && transitionTable.isFinal(index) : indexTable.isFinal(index);
+					if (isFinal) {
+						float weight = 1.0f;
+						if (weighted) weight = ctx.frameWeight[f] + (idx < 0 ? transitionTable.getWeight(index) : indexTable.getFinalWeight(index));
+						if (weight <= limit && ctx.countResult()) {
+							if (!sink.analysis(ctx.outputString, ctx.frameOutputPointer[f], weight))
+								ctx.depth = 0;
+							else if (weighted) limit = sink.getWeightLimit();
+						}
+					} else if (stats != null) ++stats.deadEnds;
+				} else if (idx < 0) {
+					ctx.framePosition[f] = index + 1;
+					ctx.framePhase[f] = LookupContext.SYMBOLS;
+				} else if (indexTable.getInput(index + 1 + symbol) == symbol) {
+					ctx.framePosition[f] = pivot(indexTable.getRawTarget(index + 1 + symbol));
+					ctx.framePhase[f] = LookupContext.SYMBOLS;
+				} else {
+					--ctx.depth;
+					if (stats != null) ++stats.deadEnds;
+				}
+				break;
+			}
+			default: {
+				int pos = ctx.framePosition[f]++;
+				int inputPointer = ctx.frameInputPointer[f];
+				if (transitionTable.getInput(pos) == ctx.inputString.get(inputPointer))
+					enter(ctx, f, pos, inputPointer + 1, limit);
+				else --ctx.depth;
+			}
+			}
+		}
+	}
+
+	/**
+	 * Follows the transition at pos from the state of frame f, unless that
+	 * would take the weight over the limit.
+	 */
+	private void enter(LookupContext ctx, int f, int pos, int inputPointer, float limit) {
+		int outputPointer = ctx.frameOutputPointer[f];
+		if (weighted) {
+			float weight = ctx.frameWeight[f] + transitionTable.getWeight(pos);
+			if (weight > limit || !ctx.step(outputPointer + 1)) return;
+			ctx.setOutput(outputPointer, transitionTable.getOutput(pos));
+			ctx.push(transitionTable.getRawTarget(pos), inputPointer, outputPointer + 1, weight);
+		} else {
+			if (!ctx.step(outputPointer + 1)) return;
+			ctx.setOutput(outputPointer, transitionTable.getOutput(pos));
+			ctx.push(transitionTable.getRawTarget(pos), inputPointer, outputPointer + 1);
+		}
+	}
+
+	/**
+	 * Input symbol number for characters that start no input symbol in an
+	 * approximate lookup, matching no transition
+	 */
+	private static final int UNKNOWN = Integer.MAX_VALUE;
+
+	/**
+	 * Traverses the transducer like {@link #getAnalyses(LookupContext, ResultSink)},
+	 * but allowing up to maxEdits edits of the input symbols on the way, each
+	 * a deletion of an input symbol, an insertion of the input symbol of a
+	 * transition, a substitution of one for the next input symbol or a
+	 * transposition of the next two. Each path reaching a final state at the
+	 * end of input offers the input symbols of its transitions as a
+	 * correction to best, and paths that can no longer improve on the
+	 * corrections kept are pruned.
+	 * <p>
+	 * In the symbols phase, framePosition is the next transition of a state
+	 * in the transition table, or the next input symbol to try of one in the
+	 * index table, whose transitions are then followed all at once. As in
+	 * {@link #getAnalyses(LookupContext, ResultSink)}, a state in the
+	 * transition table only has the transitions with the input symbol of its
+	 * first one, and none if that is an epsilon or a flag diacritic.
+	 */
+	final void getCorrections(LookupContext ctx, int maxEdits, BestCorrections best) {
+		LookupStats stats = ctx.stats;
+		int end = ctx.inputString.size() - 1;
+		int symbolCount = header.getInputSymbolCount();
+		// unweighted paths all weigh 1, like their analyses
+		ctx.push(0, 0, 0, weighted ? 0.0f : 1.0f, 0, 0, -1);
+		while (ctx.depth > 0) {
+			int f = ctx.depth - 1;
+			if (stats != null && ctx.depth > stats.maxDepth) stats.maxDepth = ctx.depth;
+			ctx.restoreFlags(ctx.frameUndo[f]);
+			int idx = ctx.frameState[f];
+			int index = pivot(idx);
+			int pending = ctx.framePending[f];
+			switch (ctx.framePhase[f]) {
+			case LookupContext.INIT:
+				if (idx < 0) {
+					ctx.framePosition[f] = index + 1;
+					ctx.framePhase[f] = LookupContext.EPSILONS;
+				} else if (indexTable.getInput(index + 1) == 0) {
+					ctx.framePosition[f] = pivot(indexTable.getRawTarget(index + 1));
+					ctx.framePhase[f] = LookupContext.EPSILONS;
+				} else ctx.framePhase[f] = LookupContext.FINAL;
+				break;
+			case LookupContext.EPSILONS: {
+				int pos = ctx.framePosition[f]++;
+				int input = transitionTable.getInput(pos);
+				FlagDiacriticOperation flag = input < operations.length ? operations[input] : null;
+				if (flag != null) {
+					if (stats != null) ++stats.flags;
+					if (ctx.applyFlag(flag))
+						follow(ctx, f, pos, 0, ctx.frameInputPointer[f], ctx.frameEdits[f], pending, best);
+					else if (stats != null) ++stats.flagFailures;
+				} else if (input == 0) {
+					if (stats != null) ++stats.epsilons;
+					follow(ctx, f, pos, 0, ctx.frameInputPointer[f], ctx.frameEdits[f], pending, best);
+				} else ctx.framePhase[f] = LookupContext.FINAL;
+				break;
+			}
+			case LookupContext.FINAL: {
+				int inputPointer = ctx.frameInputPointer[f];
+				int edits = ctx.frameEdits[f];
+				float weight = ctx.frameWeight[f];
+				ctx.framePhase[f] = LookupContext.SYMBOLS;
+				ctx.framePosition[f] = idx < 0 ? index + 1 : pending >= 0 ? pending : edits == maxEdits ? ctx.inputString.get(inputPointer) : 1;
+				if (pending >= 0) break; // only the rest of the transposition may follow
+				if (inputPointer == end) {
+					boolean isFinal = idx < 0 ? transitionTable.size() > index && transitionTable.isFinal(index) : indexTable.isFinal(index);
+					if (isFinal) {
+						if (weighted) weight += idx < 0 ? transitionTable.getWeight(index) : indexTable.getFinalWeight(index);
+						if (best.accepts(edits, weight) && ctx.countResult())
+							best.add(ctx.surfaceString, ctx.frameSurfacePointer[f], edits, weight);
+					}
+				} else if (edits < maxEdits && best.accepts(edits + 1, weight)) // deletion
+					ctx.push(idx, inputPointer + 1, ctx.frameOutputPointer[f], weight, ctx.frameSurfacePointer[f], edits + 1, -1);
+				break;
+			}
+			default:
+				if (idx < 0) {
+					int pos = ctx.framePosition[f]++;
+					int symbol = transitionTable.getInput(pos);
+					if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER || symbol == 0 || symbol != transitionTable.getInput(index + 1) || symbol < operations.length && operations[symbol] != null)
+						--ctx.depth;
+					else edit(ctx, f, pos, symbol, end, maxEdits, best);
+				} else {
+					// only the rest of a transposition, or with no edits left the next input symbol, may follow
+					int symbol = ctx.framePosition[f];
+					int last = pending >= 0 ? pending : ctx.frameEdits[f] == maxEdits ? ctx.inputString.get(ctx.frameInputPointer[f]) : symbolCount - 1;
+					if (last >= symbolCount) last = -1; // end of input or an unknown character
+					while (symbol <= last && (indexTable.getInput(index + 1 + symbol) != symbol || symbol < operations.length && operations[symbol] != null))
+						++symbol;
+					ctx.framePosition[f] = symbol + 1;
+					if (symbol > last)
+						--ctx.depth;
+					else for (int pos = pivot(indexTable.getRawTarget(index + 1 + symbol)); transitionTable.getInput(pos) == symbol; ++pos)
+						edit(ctx, f, pos, symbol, end, maxEdits, best);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Follows the transition at pos, with the given input symbol, from the
+	 * state of frame f in each way the edits left allow: as an insertion, as
+	 * a substitution or the first half of a transposition of the next input
+	 * symbols, or matching the next input symbol, which is pushed last so as
+	 * to be tried first.
+	 */
+	private void edit(LookupContext ctx, int f, int pos, int symbol, int end, int maxEdits, BestCorrections best) {
+		int inputPointer = ctx.frameInputPointer[f];
+		int edits = ctx.frameEdits[f];
+		int pending = ctx.framePending[f];
+		if (pending >= 0) { // only the second half of a transposition
+			if (symbol == pending) follow(ctx, f, pos, symbol, inputPointer, edits, -1, best);
+			return;
+		}
+		int next = ctx.inputString.get(inputPointer);
+		if (edits < maxEdits) {
+			follow(ctx, f, pos, symbol, inputPointer, edits + 1, -1, best);
+			if (inputPointer < end && symbol != next) {
+				follow(ctx, f, pos, symbol, inputPointer + 1, edits + 1, -1, best);
+				if (inputPointer + 1 < end && symbol == ctx.inputString.get(inputPointer + 1) && next != UNKNOWN)
+					follow(ctx, f, pos, symbol, inputPointer + 2, edits + 1, next, best);
+			}
+		}
+		if (symbol == next) follow(ctx, f, pos, symbol, inputPointer + 1, edits, -1, best);
+	}
+
+	/**
+	 * Follows the transition at pos from the state of frame f in an
+	 * approximate lookup, unless no correction good enough to keep could be
+	 * reached that way.
+	 *
+	 * @param symbol
+	 *            the input symbol to add to the corrected input, or 0 for none
+	 */
+	private void follow(LookupContext ctx, int f, int pos, int symbol, int inputPointer, int edits, int pending, BestCorrections best) {
+		int outputPointer = ctx.frameOutputPointer[f];
+		int surfacePointer = ctx.frameSurfacePointer[f];
+		float weight = ctx.frameWeight[f];
+		if (weighted) weight += transitionTable.getWeight(pos);
+		if (!best.accepts(edits, weight) || !ctx.step(outputPointer + 1)) return;
+		ctx.setOutput(outputPointer, transitionTable.getOutput(pos));
+		if (symbol != 0) ctx.setSurface(surfacePointer++, symbol);
+		ctx.push(transitionTable.getRawTarget(pos), inputPointer, outputPointer + 1, weight, surfacePointer, edits, pending);
+	}
+
+	final LookupContext getContext() {
+		return contexts.get();
+	}
+
+	@Override
+	public ResultList analyze(String input) {
+		LookupContext ctx = contexts.get();
+		ResultCollector collector = ctx.getCollector(alphabet.keyTable);
+		analyze(input, ctx, collector);
+		return collector.getResults(ctx);
+	}
+
+	@Override
+	public ResultList analyze(CharSequence input, int offset, int length) {
+		LookupContext ctx = contexts.get();
+		ResultCollector collector = ctx.getCollector(alphabet.keyTable);
+		analyze(input, offset, length, ctx, collector);
+		return collector.getResults(ctx);
+	}
+
+	@Override
+	public void analyze(CharSequence input, LookupContext ctx, ResultSink sink) {
+		analyze(input, 0, input.length(), ctx, sink);
+	}
+
+	@Override
+	public void analyze(CharSequence input, int offset, int length, LookupContext ctx, ResultSink sink) {
+		Object event = TransducerEvents.startLookup();
+		if (ctx.reset(input, offset, offset + length, tokenizer, alphabet.features, limits)) getAnalyses(ctx, sink);
+		TransducerEvents.finishLookup(event, length, ctx);
+	}
+
+	@Override
+	public void analyze(byte[] utf8, int offset, int length, LookupContext ctx, ResultSink sink) {
+		Object event = TransducerEvents.startLookup();
+		if (ctx.reset(utf8, null, offset, offset + length, tokenizer, alphabet.features, limits)) getAnalyses(ctx, sink);
+		TransducerEvents.finishLookup(event, length, ctx);
+	}
+
+	@Override
+	public void analyze(ByteBuffer utf8, LookupContext ctx, ResultSink sink) {
+		Object event = TransducerEvents.startLookup();
+		if (ctx.reset(null, utf8, utf8.position(), utf8.limit(), tokenizer, alphabet.features, limits)) getAnalyses(ctx, sink);
+		TransducerEvents.finishLookup(event, utf8.remaining(), ctx);
+	}
+
+	@Override
+	public List<Correction> correct(String input, int maxEdits, int n) {
+		return correct(input, maxEdits, n, contexts.get());
+	}
+
+	@Override
+	public List<Correction> correct(CharSequence input, int maxEdits, int n, LookupContext ctx) {
+		if (maxEdits < 0) throw new IllegalArgumentException("maxEdits must not be negative, was " + maxEdits);
+		BestCorrections best = new BestCorrections(n, symbolTable);
+		Object event = TransducerEvents.startLookup();
+		ctx.resetApproximate(input, 0, input.length(), tokenizer, UNKNOWN, alphabet.features, limits);
+		getCorrections(ctx, maxEdits, best);
+		TransducerEvents.finishLookup(event, input.length(), ctx);
+		List<Correction> corrections = new ArrayList<Correction>(best.size());
+		LookupContext spare = ctx.getSpare();
+		for (int slot : best.order()) {
+			String surface = best.getSurface(slot);
+			ResultCollector collector = new ResultCollector(alphabet.keyTable);
+			analyze(surface, spare, collector);
+			List<Result> analyses = collector.getResults();
+			if (analyses.isEmpty()) continue; // spelled by other symbols than its tokenization
+			float weight = Float.POSITIVE_INFINITY;
+			for (Result r : analyses)
+				weight = Math.min(weight, r.getWeight());
+			corrections.add(new Correction(surface, best.getEdits(slot), weight, analyses));
+		}
+		Collections.sort(corrections, Correction.ORDER);
+		return corrections;
+	}
+
+	/**
+	 * Sets the limits used for lookups unless overridden in the
+	 * LookupContext. The default depends on the header, see
+	 * {@link LookupLimits#forHeader(TransducerHeader)}.
+	 */
+	public void setLimits(LookupLimits limits) {
+		if (limits == null) throw new NullPointerException("limits");
+		this.limits = limits;
+	}
+
+	public LookupLimits getLimits() {
+		return limits;
+	}
+
+	@Override
+	public List<String> getAlphabet() {
+		return alphabet.keyTable;
+	}
+
+	@Override
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+}
@@ -0,0 +1,74 @@
+package fi.seco.hfst;
+
+/**
+ * Bounds on the work a single lookup may do. A lookup hitting a limit stops
+ * (or, for the output length, abandons the path in question) and flags its
+ * results as truncated, see {@link LookupContext#isTruncated()}.
+ */
+public final class LookupLimits {
+
+	/** No limits at all */
+	public static final LookupLimits NONE = new LookupLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+
+	/**
+	 * Output length after which paths are abandoned by default in transducers
+	 * that have input epsilon cycles
+	 */
+	public static final int DEFAULT_CYCLIC_MAX_OUTPUT_LENGTH = 1024;
+
+	final long maxSteps;
+	final int maxOutputLength;
+	final int maxResults;
+	final long timeoutNanos;
+
+	/**
+	 * @param maxSteps
+	 *            maximum number of transitions followed
+	 * @param maxOutputLength
+	 *            maximum number of output symbols in an analysis; longer paths
+	 *            are abandoned, which guards against epsilon cycles
+	 * @param maxResults
+	 *            maximum number of analyses
+	 * @param timeoutNanos
+	 *            maximum duration of the lookup, or 0 for none
+	 */
+	public LookupLimits(long maxSteps, int maxOutputLength, int maxResults, long timeoutNanos) {
+		if (maxSteps < 1 || maxOutputLength < 1 || maxResults < 1 || timeoutNanos < 0) throw new IllegalArgumentException("Limits must be positive");
+		this.maxSteps = maxSteps;
+		this.maxOutputLength = maxOutputLength;
+		this.maxResults = maxResults;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * @return the limits used by default for the transducer: none, unless the
+	 *         header says it has input epsilon cycles, in which case the
+	 *         output length is limited to
+	 *         {@link #DEFAULT_CYCLIC_MAX_OUTPUT_LENGTH}
+	 */
+	public static LookupLimits forHeader(TransducerHeader header) {
+		if (header.hasInputEpsilonCycles() || header.hasUnweightedInputEpsilonCycles()) return new LookupLimits(Long.MAX_VALUE, DEFAULT_CYCLIC_MAX_OUTPUT_LENGTH, Integer.MAX_VALUE, 0);
+		return NONE;
+	}
+
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	public int getMaxOutputLength() {
+		return maxOutputLength;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "LookupLimits[maxSteps=" + maxSteps + ", maxOutputLength=" + maxOutputLength + ", maxResults=" + maxResults + ", timeoutNanos=" + timeoutNanos + "]";
+	}
+}
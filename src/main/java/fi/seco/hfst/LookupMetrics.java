@@ -0,0 +1,251 @@
+package fi.seco.hfst;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Aggregates the lookups recorded by an {@link InstrumentedTransducer}:
+ * counters of lookups, analyses and work done, the throughput since the last
+ * reset and a histogram of latencies. Recording is lock free and may be done
+ * from any number of threads.
+ * <p>
+ * Latencies are counted in buckets by powers of two nanoseconds, bucket
+ * <code>b</code> holding those below 2<sup>b</sup> ns but not below
+ * 2<sup>b-1</sup> ns, so percentiles are reported as the upper bound of their
+ * bucket, at most twice the actual value.
+ * <p>
+ * Register the metrics with {@link #register(String)} to read them over JMX.
+ */
+public final class LookupMetrics implements LookupMetricsMBean {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong analyses = new AtomicLong();
+	private final AtomicLong steps = new AtomicLong();
+	private final AtomicLong empty = new AtomicLong();
+	private final AtomicLong truncated = new AtomicLong();
+	private final AtomicLong epsilons = new AtomicLong();
+	private final AtomicLong flags = new AtomicLong();
+	private final AtomicLong flagFailures = new AtomicLong();
+	private final AtomicLong deadEnds = new AtomicLong();
+	private final AtomicLong maxDepth = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+	private volatile long since = System.nanoTime();
+
+	/**
+	 * Records a lookup done with the context.
+	 *
+	 * @param nanos
+	 *            the duration of the lookup
+	 */
+	public void record(LookupContext ctx, long nanos) {
+		lookups.incrementAndGet();
+		int results = ctx.getResultCount();
+		if (results == 0)
+			empty.incrementAndGet();
+		else analyses.addAndGet(results);
+		steps.addAndGet(ctx.getSteps());
+		if (ctx.isTruncated()) truncated.incrementAndGet();
+		LookupStats stats = ctx.getStats();
+		if (stats != null) {
+			epsilons.addAndGet(stats.epsilons);
+			flags.addAndGet(stats.flags);
+			flagFailures.addAndGet(stats.flagFailures);
+			deadEnds.addAndGet(stats.deadEnds);
+			max(maxDepth, stats.maxDepth);
+		}
+		if (nanos < 0) nanos = 0;
+		totalNanos.addAndGet(nanos);
+		max(maxNanos, nanos);
+		latencies.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+	}
+
+	private static void max(AtomicLong max, long value) {
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * <code>fi.seco.hfst:type=LookupMetrics,name=</code><em>name</em>.
+	 *
+	 * @return the name registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName on = new ObjectName("fi.seco.hfst:type=LookupMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		return on;
+	}
+
+	@Override
+	public long getLookupCount() {
+		return lookups.get();
+	}
+
+	@Override
+	public long getAnalysisCount() {
+		return analyses.get();
+	}
+
+	/**
+	 * @return the number of transitions followed in all
+	 */
+	@Override
+	public long getStepCount() {
+		return steps.get();
+	}
+
+	/**
+	 * @return the number of lookups finding no analyses
+	 */
+	@Override
+	public long getEmptyCount() {
+		return empty.get();
+	}
+
+	/**
+	 * @return the number of lookups stopped by their limits
+	 * @see LookupContext#isTruncated()
+	 */
+	@Override
+	public long getTruncatedCount() {
+		return truncated.get();
+	}
+
+	/**
+	 * @return the number of epsilon transitions followed in the lookups
+	 *         counting their {@link LookupStats}
+	 */
+	@Override
+	public long getEpsilonCount() {
+		return epsilons.get();
+	}
+
+	/**
+	 * @return the number of flag diacritic transitions tried in the lookups
+	 *         counting their {@link LookupStats}
+	 */
+	@Override
+	public long getFlagCount() {
+		return flags.get();
+	}
+
+	/**
+	 * @return the number of flag diacritic transitions blocked by their check
+	 *         in the lookups counting their {@link LookupStats}
+	 */
+	@Override
+	public long getFlagFailureCount() {
+		return flagFailures.get();
+	}
+
+	/**
+	 * @return the number of paths abandoned without an analysis in the
+	 *         lookups counting their {@link LookupStats}
+	 * @see LookupStats#getDeadEnds()
+	 */
+	@Override
+	public long getDeadEndCount() {
+		return deadEnds.get();
+	}
+
+	/**
+	 * @return the greatest depth reached by any lookup counting its
+	 *         {@link LookupStats}
+	 */
+	@Override
+	public int getMaxDepth() {
+		return (int) maxDepth.get();
+	}
+
+	/**
+	 * @return the lookups per second since the creation or the last reset
+	 */
+	@Override
+	public double getLookupsPerSecond() {
+		double seconds = (System.nanoTime() - since) / 1e9;
+		return seconds > 0 ? lookups.get() / seconds : 0;
+	}
+
+	@Override
+	public double getMeanLatencyMicros() {
+		long n = lookups.get();
+		return n > 0 ? totalNanos.get() / 1e3 / n : 0;
+	}
+
+	@Override
+	public double getMedianLatencyMicros() {
+		return getLatencyPercentileMicros(50);
+	}
+
+	@Override
+	public double getLatency99thPercentileMicros() {
+		return getLatencyPercentileMicros(99);
+	}
+
+	@Override
+	public double getLatency999thPercentileMicros() {
+		return getLatencyPercentileMicros(99.9);
+	}
+
+	@Override
+	public double getMaxLatencyMicros() {
+		return maxNanos.get() / 1e3;
+	}
+
+	/**
+	 * @return the latency below which the percentage of the lookups fall, as
+	 *         the upper bound of its histogram bucket
+	 */
+	public double getLatencyPercentileMicros(double percentile) {
+		long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for (long n : histogram)
+			total += n;
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; ++b) {
+			seen += histogram[b];
+			if (seen >= rank) return Math.min(Math.pow(2, b), maxNanos.get()) / 1e3;
+		}
+		return getMaxLatencyMicros();
+	}
+
+	/**
+	 * @return the number of lookups per latency bucket, bucket <code>b</code>
+	 *         counting those taking less than 2<sup>b</sup> ns
+	 */
+	@Override
+	public long[] getLatencyHistogram() {
+		long[] histogram = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; ++b)
+			histogram[b] = latencies.get(b);
+		return histogram;
+	}
+
+	/**
+	 * Zeroes all counters and restarts the throughput measurement. Lookups
+	 * recorded at the same time may be partially counted.
+	 */
+	@Override
+	public void reset() {
+		for (AtomicLong counter : new AtomicLong[] { lookups, analyses, steps, empty, truncated, epsilons, flags, flagFailures, deadEnds, maxDepth, totalNanos, maxNanos })
+			counter.set(0);
+		for (int b = 0; b < BUCKETS; ++b)
+			latencies.set(b, 0);
+		since = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LookupMetrics[lookups=%d, analyses=%d, steps=%d, empty=%d, truncated=%d, %.0f lookups/s, mean=%.1f us, p50=%.1f us, p99=%.1f us, max=%.1f us]", getLookupCount(), getAnalysisCount(), getStepCount(), getEmptyCount(), getTruncatedCount(), getLookupsPerSecond(), getMeanLatencyMicros(), getMedianLatencyMicros(), getLatency99thPercentileMicros(), getMaxLatencyMicros());
+	}
+}
@@ -0,0 +1,43 @@
+package fi.seco.hfst;
+
+/**
+ * The management interface of {@link LookupMetrics}.
+ */
+public interface LookupMetricsMBean {
+
+	public long getLookupCount();
+
+	public long getAnalysisCount();
+
+	public long getStepCount();
+
+	public long getEmptyCount();
+
+	public long getTruncatedCount();
+
+	public long getEpsilonCount();
+
+	public long getFlagCount();
+
+	public long getFlagFailureCount();
+
+	public long getDeadEndCount();
+
+	public int getMaxDepth();
+
+	public double getLookupsPerSecond();
+
+	public double getMeanLatencyMicros();
+
+	public double getMedianLatencyMicros();
+
+	public double getLatency99thPercentileMicros();
+
+	public double getLatency999thPercentileMicros();
+
+	public double getMaxLatencyMicros();
+
+	public long[] getLatencyHistogram();
+
+	public void reset();
+}
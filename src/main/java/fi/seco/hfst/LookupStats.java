@@ -0,0 +1,71 @@
+package fi.seco.hfst;
+
+/**
+ * Counts the work of a single lookup in more detail than the steps and
+ * analyses every {@link LookupContext} counts. Only collected for contexts
+ * given an instance with {@link LookupContext#setStats(LookupStats)}; without
+ * one, the traversal skips the counting at the cost of a null check.
+ * <p>
+ * The counters are reset at the start of each lookup and describe the last
+ * one until the next starts.
+ */
+public final class LookupStats {
+
+	int epsilons;
+	int flags;
+	int flagFailures;
+	int deadEnds;
+	int maxDepth;
+
+	void clear() {
+		epsilons = 0;
+		flags = 0;
+		flagFailures = 0;
+		deadEnds = 0;
+		maxDepth = 0;
+	}
+
+	/**
+	 * @return the number of epsilon transitions followed
+	 */
+	public int getEpsilons() {
+		return epsilons;
+	}
+
+	/**
+	 * @return the number of flag diacritic transitions tried, whether their
+	 *         check succeeded or not
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return the number of flag diacritic transitions blocked by their check
+	 */
+	public int getFlagFailures() {
+		return flagFailures;
+	}
+
+	/**
+	 * @return the number of paths abandoned at a state not final at the end of
+	 *         the input, or with no transitions for the next input symbol in
+	 *         its index
+	 */
+	public int getDeadEnds() {
+		return deadEnds;
+	}
+
+	/**
+	 * @return the greatest number of states on the path being followed at any
+	 *         time, i.e. the greatest depth the recursive lookup would reach
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public String toString() {
+		return "LookupStats[epsilons=" + epsilons + ", flags=" + flags + ", flagFailures=" + flagFailures + ", deadEnds=" + deadEnds + ", maxDepth=" + maxDepth + "]";
+	}
+}
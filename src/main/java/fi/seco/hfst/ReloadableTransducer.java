@@ -0,0 +1,263 @@
+package fi.seco.hfst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A transducer that can be replaced by a new version of its file while in
+ * use. Reloads map the new file on a background thread and, once it is ready,
+ * switch to it atomically, read-copy-update style: lookups starting after the
+ * switch use the new transducer, while those already running finish on the
+ * old one, which is released as soon as the last of them returns. Lookups are
+ * never blocked by a reload.
+ * <p>
+ * Reloads run one at a time, and each waits for the transducer retired by the
+ * previous one to be released before loading, so at most two versions are
+ * held at once. Released transducers are freed, and their mappings unmapped,
+ * by the garbage collector. As the file stays mapped, new versions should be
+ * deployed by renaming a complete file over the old one rather than by
+ * rewriting it in place.
+ * <p>
+ * Symbol numbers, as in {@link IdResult}s, may differ between versions, so
+ * {@link #getSymbolTable()} only describes the results of lookups started
+ * after the last switch.
+ */
+public class ReloadableTransducer implements SinkTransducer, Closeable {
+
+	private static final class Generation {
+		SinkTransducer transducer;
+		/** Lookups running on this generation, plus one while it is current */
+		final AtomicInteger users = new AtomicInteger(1);
+		final CountDownLatch released = new CountDownLatch(1);
+
+		Generation(SinkTransducer transducer) {
+			this.transducer = transducer;
+		}
+	}
+
+	private static final ThreadFactory DAEMON = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "transducer-reload");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final AtomicReference<Generation> current;
+	private final ExecutorService reloader = Executors.newSingleThreadExecutor(DAEMON);
+	private volatile File file;
+	/** The generation replaced by the last reload, accessed by the reloader */
+	private Generation retired;
+	private volatile boolean closed;
+
+	/**
+	 * Maps the transducer file, which later reloads read again by default.
+	 */
+	public ReloadableTransducer(File file) throws IOException {
+		this.file = file;
+		current = new AtomicReference<Generation>(new Generation(TransducerLoader.map(file)));
+	}
+
+	/**
+	 * Reloads the file last loaded.
+	 *
+	 * @see #reload(File)
+	 */
+	public Future<SinkTransducer> reload() {
+		return reload(file);
+	}
+
+	/**
+	 * Maps the transducer file in the background and switches to it once it
+	 * is loaded. If loading fails, the current transducer stays in use and the
+	 * future reports the failure, as it does an {@link IllegalStateException}
+	 * if this transducer is closed before the switch.
+	 *
+	 * @return the new transducer, once switched to
+	 */
+	public Future<SinkTransducer> reload(final File file) {
+		Callable<SinkTransducer> load = new Callable<SinkTransducer>() {
+			@Override
+			public SinkTransducer call() throws IOException, InterruptedException {
+				if (retired != null) retired.released.await();
+				retired = null;
+				Generation g = new Generation(TransducerLoader.map(file));
+				SinkTransducer t = g.transducer;
+				synchronized (ReloadableTransducer.this) {
+					if (closed) throw new IllegalStateException("Transducer closed");
+					ReloadableTransducer.this.file = file;
+					retired = current.getAndSet(g);
+				}
+				exit(retired);
+				return t;
+			}
+		};
+		try {
+			if (!closed) return reloader.submit(load);
+		} catch (RejectedExecutionException e) {
+			// closed meanwhile
+		}
+		FutureTask<SinkTransducer> failed = new FutureTask<SinkTransducer>(new Callable<SinkTransducer>() {
+			@Override
+			public SinkTransducer call() {
+				throw new IllegalStateException("Transducer closed");
+			}
+		});
+		failed.run();
+		return failed;
+	}
+
+	/**
+	 * Registers a lookup on the current generation, unless it has already
+	 * been released, in which case it is no longer current either.
+	 */
+	private Generation enter() {
+		while (true) {
+			Generation g = current.get();
+			int n = g.users.get();
+			if (n == 0) {
+				if (g == current.get()) throw new IllegalStateException("Transducer closed");
+			} else if (g.users.compareAndSet(n, n + 1)) return g;
+		}
+	}
+
+	private static void exit(Generation g) {
+		if (g.users.decrementAndGet() == 0) {
+			g.transducer = null;
+			g.released.countDown();
+		}
+	}
+
+	@Override
+	public ResultList analyze(String str) {
+		Generation g = enter();
+		try {
+			return g.transducer.analyze(str);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public void analyze(CharSequence str, LookupContext ctx, ResultSink sink) {
+		Generation g = enter();
+		try {
+			g.transducer.analyze(str, ctx, sink);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public ResultList analyze(CharSequence str, int offset, int length) {
+		Generation g = enter();
+		try {
+			return g.transducer.analyze(str, offset, length);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public void analyze(CharSequence str, int offset, int length, LookupContext ctx, ResultSink sink) {
+		Generation g = enter();
+		try {
+			g.transducer.analyze(str, offset, length, ctx, sink);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public void analyze(byte[] utf8, int offset, int length, LookupContext ctx, ResultSink sink) {
+		Generation g = enter();
+		try {
+			g.transducer.analyze(utf8, offset, length, ctx, sink);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public void analyze(ByteBuffer utf8, LookupContext ctx, ResultSink sink) {
+		Generation g = enter();
+		try {
+			g.transducer.analyze(utf8, ctx, sink);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public List<Correction> correct(String input, int maxEdits, int n) {
+		Generation g = enter();
+		try {
+			return g.transducer.correct(input, maxEdits, n);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public List<Correction> correct(CharSequence input, int maxEdits, int n, LookupContext ctx) {
+		Generation g = enter();
+		try {
+			return g.transducer.correct(input, maxEdits, n, ctx);
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public List<String> getAlphabet() {
+		Generation g = enter();
+		try {
+			return g.transducer.getAlphabet();
+		} finally {
+			exit(g);
+		}
+	}
+
+	@Override
+	public SymbolTable getSymbolTable() {
+		Generation g = enter();
+		try {
+			return g.transducer.getSymbolTable();
+		} finally {
+			exit(g);
+		}
+	}
+
+	/**
+	 * @return the file of the transducer currently in use
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Stops reloading and releases the current transducer once the lookups on
+	 * it have finished. A reload in progress is discarded.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		reloader.shutdown();
+		exit(current.get());
+	}
+}
@@ -0,0 +1,66 @@
+package fi.seco.hfst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * Collects the analyses into a list of Results, as returned by
+ * {@link Transducer#analyze(String)}.
+ */
+public class ResultCollector implements ResultSink {
+	private List<String> keyTable;
+	private List<Result> results;
+
+	/**
+	 * @param keyTable
+	 *            the alphabet of the transducer, see
+	 *            {@link Transducer#getAlphabet()}
+	 */
+	public ResultCollector(List<String> keyTable) {
+		this.keyTable = keyTable;
+	}
+
+	void reset(List<String> keyTable) {
+		this.keyTable = keyTable;
+		this.results = null;
+	}
+
+	@Override
+	public boolean analysis(int[] symbols, int length, float weight) {
+		List<String> s = new ArrayList<String>(length);
+		for (int i = 0; i < length; ++i)
+			s.add(keyTable.get(symbols[i]));
+		if (results == null) results = new ArrayList<Result>();
+		results.add(new Result(s, weight));
+		return true;
+	}
+
+	@Override
+	public float getWeightLimit() {
+		return Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the analyses collected so far, after which the collector starts
+	 *         a new list
+	 */
+	public List<Result> getResults() {
+		List<Result> r = results;
+		results = null;
+		return r == null ? Collections.<Result> emptyList() : r;
+	}
+
+	/**
+	 * @return the analyses of the lookup just made with the context, after
+	 *         which the collector starts a new list
+	 */
+	ResultList getResults(LookupContext ctx) {
+		List<Result> r = results;
+		results = null;
+		if (r == null) return ctx.isTruncated() ? new ResultList(Collections.<Result> emptyList(), true) : ResultList.EMPTY;
+		return new ResultList(r, ctx.isTruncated());
+	}
+}
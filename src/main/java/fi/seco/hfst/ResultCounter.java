@@ -0,0 +1,45 @@
+package fi.seco.hfst;
+
+/**
+ * Counts the analyses without materializing them, optionally stopping the
+ * lookup once a limit is reached. With a limit of one, tells whether the input
+ * is known to the transducer at all.
+ */
+public class ResultCounter implements ResultSink {
+	private final int limit;
+	private int count;
+
+	public ResultCounter() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param limit
+	 *            number of analyses after which to stop the lookup
+	 */
+	public ResultCounter(int limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	public boolean analysis(int[] symbols, int length, float weight) {
+		return ++count < limit;
+	}
+
+	@Override
+	public float getWeightLimit() {
+		return Float.POSITIVE_INFINITY;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public void reset() {
+		count = 0;
+	}
+}
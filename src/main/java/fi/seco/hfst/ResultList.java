@@ -0,0 +1,60 @@
+package fi.seco.hfst;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * The analyses of a lookup, as returned by
+ * {@link SinkTransducer#analyze(String)}, together with whether the lookup hit
+ * one of its {@link LookupLimits} and so might have missed some. Changes are
+ * passed to the underlying list.
+ */
+public final class ResultList extends AbstractList<Result> implements RandomAccess {
+	static final ResultList EMPTY = new ResultList(Collections.<Result> emptyList(), false);
+
+	private final List<Result> results;
+	private final boolean truncated;
+
+	public ResultList(List<Result> results, boolean truncated) {
+		this.results = results;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * @return whether the lookup hit one of its limits and so might have
+	 *         missed analyses
+	 * @see LookupContext#isTruncated()
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	@Override
+	public Result get(int index) {
+		return results.get(index);
+	}
+
+	@Override
+	public int size() {
+		return results.size();
+	}
+
+	@Override
+	public Result set(int index, Result element) {
+		return results.set(index, element);
+	}
+
+	@Override
+	public void add(int index, Result element) {
+		results.add(index, element);
+	}
+
+	@Override
+	public Result remove(int index) {
+		return results.remove(index);
+	}
+}
@@ -0,0 +1,31 @@
+package fi.seco.hfst;
+
+/**
+ * Receives the analyses of a lookup as they are found.
+ */
+public interface ResultSink {
+	/**
+	 * Called for each analysis found. The symbol array belongs to the lookup
+	 * and is overwritten afterwards, so it must not be retained.
+	 * 
+	 * @param symbols
+	 *            output symbol numbers, indexes to
+	 *            {@link Transducer#getAlphabet()}
+	 * @param length
+	 *            number of symbols in the analysis
+	 * @param weight
+	 *            weight of the analysis
+	 * @return false to stop the lookup without looking for further analyses
+	 */
+	public boolean analysis(int[] symbols, int length, float weight);
+
+	/**
+	 * Called before the lookup and after each analysis. A weighted lookup
+	 * prunes the paths heavier than the limit, assuming that weights are
+	 * non-negative, as is usual for the tropical semiring.
+	 * 
+	 * @return the weight above which the sink has no use for an analysis, or
+	 *         {@link Float#POSITIVE_INFINITY} to receive them all
+	 */
+	public float getWeightLimit();
+}
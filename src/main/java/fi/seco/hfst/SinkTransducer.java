@@ -0,0 +1,100 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A transducer that also passes its analyses to a {@link ResultSink} using a
+ * caller's {@link LookupContext}, and looks up ranges of characters and UTF-8
+ * bytes. Kept apart from {@link Transducer} so that implementations of that
+ * interface outside this library keep compiling.
+ */
+public interface SinkTransducer extends Transducer {
+	/**
+	 * @return the analyses, which also tell whether the lookup hit one of its
+	 *         limits
+	 */
+	@Override
+	public ResultList analyze(String str);
+
+	/**
+	 * Analyzes the input using the context for all scratch space, passing the
+	 * analyses to the sink as they are found instead of collecting them.
+	 * 
+	 * @param ctx
+	 *            the caller's context, e.g. one per worker thread, not in use
+	 *            by any other lookup at the same time
+	 */
+	public void analyze(CharSequence str, LookupContext ctx, ResultSink sink);
+
+	/**
+	 * Analyzes the <code>length</code> characters starting at
+	 * <code>offset</code>, e.g. a token in a larger document, without copying
+	 * them.
+	 */
+	public ResultList analyze(CharSequence str, int offset, int length);
+
+	/**
+	 * @see #analyze(CharSequence, int, int)
+	 * @see #analyze(CharSequence, LookupContext, ResultSink)
+	 */
+	public void analyze(CharSequence str, int offset, int length, LookupContext ctx, ResultSink sink);
+
+	/**
+	 * Analyzes the <code>length</code> bytes of UTF-8 starting at
+	 * <code>offset</code>, tokenizing them directly without decoding them
+	 * into a String first.
+	 * 
+	 * @see #analyze(CharSequence, LookupContext, ResultSink)
+	 */
+	public void analyze(byte[] utf8, int offset, int length, LookupContext ctx, ResultSink sink);
+
+	/**
+	 * Analyzes the UTF-8 bytes between the position and the limit of the
+	 * buffer, which are left unchanged.
+	 * 
+	 * @see #analyze(byte[], int, int, LookupContext, ResultSink)
+	 */
+	public void analyze(ByteBuffer utf8, LookupContext ctx, ResultSink sink);
+
+	/**
+	 * @return the n corrections of the input with the fewest edits, at most
+	 *         maxEdits, in ascending order of edits and weight
+	 * @see #correct(CharSequence, int, int, LookupContext)
+	 */
+	public List<Correction> correct(String input, int maxEdits, int n);
+
+	/**
+	 * Finds the words of the transducer within maxEdits edits of the input in
+	 * a single approximate traversal. An edit inserts, deletes or substitutes
+	 * one input symbol or transposes two adjacent ones; characters of the
+	 * input that start no input symbol can only be deleted or substituted.
+	 * The traversal keeps the n corrections with the fewest edits and then,
+	 * if weighted, the lightest path found to them, and prunes the paths that
+	 * can no longer make it into the n best, which assumes that weights are
+	 * non-negative. The analyses of the corrections kept are then looked up
+	 * as usual, and the corrections ranked by the number of edits and the
+	 * weight of their lightest analysis. That weight can differ from the one
+	 * of the path the correction was kept for, if the path spells it with
+	 * other multicharacter symbols than those it is tokenized into, so a
+	 * correction left out can be lighter than one returned with as many
+	 * edits. Corrections without analyses of their own, only spelled by
+	 * such paths, are left out, so fewer than n may be returned.
+	 * <p>
+	 * The context holds the steps and limits of the traversal, which counts
+	 * every path found to a correction as a result.
+	 *
+	 * @param maxEdits
+	 *            the number of edits allowed, 0 for only the input itself
+	 * @param n
+	 *            the number of corrections to return
+	 * @return the corrections in ascending order of edits and weight
+	 */
+	public List<Correction> correct(CharSequence input, int maxEdits, int n, LookupContext ctx);
+
+	/**
+	 * @return the alphabet as characters per symbol number, for writing out
+	 *         analyses given as symbol numbers
+	 */
+	public SymbolTable getSymbolTable();
+}
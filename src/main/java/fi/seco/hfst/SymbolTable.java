@@ -0,0 +1,66 @@
+package fi.seco.hfst;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The alphabet of a transducer as a table from symbol number to characters,
+ * for turning output symbol numbers into surface strings without going
+ * through a list of Strings. Flag diacritics and epsilon have no characters.
+ */
+public final class SymbolTable {
+	private static final char[] EMPTY = new char[0];
+
+	private final char[][] chars;
+
+	public SymbolTable(List<String> keyTable) {
+		chars = new char[keyTable.size()][];
+		for (int i = 0; i < chars.length; ++i) {
+			String s = keyTable.get(i);
+			chars[i] = s.isEmpty() ? EMPTY : s.toCharArray();
+		}
+	}
+
+	public int size() {
+		return chars.length;
+	}
+
+	/**
+	 * @return the characters of the symbol, not to be modified
+	 */
+	public char[] getChars(int symbol) {
+		return chars[symbol];
+	}
+
+	/**
+	 * Appends the concatenated characters of the first <code>length</code>
+	 * symbols.
+	 * 
+	 * @return sb
+	 */
+	public StringBuilder append(int[] symbols, int length, StringBuilder sb) {
+		for (int i = 0; i < length; ++i)
+			sb.append(chars[symbols[i]]);
+		return sb;
+	}
+
+	/**
+	 * @see #append(int[], int, StringBuilder)
+	 */
+	public <A extends Appendable> A append(int[] symbols, int length, A out) throws IOException {
+		for (int i = 0; i < length; ++i) {
+			char[] c = chars[symbols[i]];
+			for (int j = 0; j < c.length; ++j)
+				out.append(c[j]);
+		}
+		return out;
+	}
+
+	/**
+	 * @return the concatenated characters of the first <code>length</code>
+	 *         symbols
+	 */
+	public String toString(int[] symbols, int length) {
+		return append(symbols, length, new StringBuilder()).toString();
+	}
+}
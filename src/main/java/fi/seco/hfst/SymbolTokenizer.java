@@ -0,0 +1,259 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Splits input strings into input symbols by greedy longest match, like
+ * {@link LetterTrie}, but compiled into flat arrays once at load time so that
+ * tokenizing neither allocates, boxes nor recurses.
+ * <p>
+ * The trie edges of each node are stored sorted by character in one shared
+ * array and searched by bisection, except for the characters below 256 at the
+ * root, which are looked up from a dense table as they start nearly every
+ * symbol in practice.
+ * <p>
+ * UTF-8 input is decoded on the fly into the same UTF-16 code units the trie
+ * is built from, so a symbol outside the Basic Multilingual Plane matches as
+ * one whole surrogate pair in either form.
+ */
+public final class SymbolTokenizer {
+
+	private static final int DENSE = 256;
+
+	/** Edge labels, grouped by node and sorted within each node */
+	final char[] labels;
+	/** Node each edge leads to */
+	final int[] children;
+	/** Symbol number of the string ending in each node, or 0 for none */
+	final int[] symbols;
+	/** Edges of node n are at nodeStart[n] until nodeStart[n + 1] */
+	final int[] nodeStart;
+	/** Root edge for each character below DENSE, or -1 */
+	private final int[] rootEdges = new int[DENSE];
+
+	private static final class Node {
+		final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+		int symbol;
+		int id;
+	}
+
+	/**
+	 * @param keyTable
+	 *            the symbol strings
+	 * @param inputSymbolCount
+	 *            the number of input symbols, which come first in the key table
+	 */
+	public SymbolTokenizer(List<String> keyTable, int inputSymbolCount) {
+		Node root = new Node();
+		for (int i = 0; i < inputSymbolCount; ++i) {
+			String s = keyTable.get(i);
+			if (s.isEmpty()) continue;
+			Node n = root;
+			for (int j = 0; j < s.length(); ++j) {
+				Node child = n.children.get(s.charAt(j));
+				if (child == null) {
+					child = new Node();
+					n.children.put(s.charAt(j), child);
+				}
+				n = child;
+			}
+			n.symbol = i;
+		}
+
+		// number the nodes breadth first, so that the edges of each node are consecutive
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); ++i) {
+			Node n = nodes.get(i);
+			n.id = i;
+			nodes.addAll(n.children.values());
+		}
+
+		labels = new char[nodes.size() - 1];
+		children = new int[nodes.size() - 1];
+		symbols = new int[nodes.size()];
+		nodeStart = new int[nodes.size() + 1];
+		int e = 0;
+		for (Node n : nodes) {
+			nodeStart[n.id] = e;
+			symbols[n.id] = n.symbol;
+			for (Map.Entry<Character, Node> edge : n.children.entrySet()) {
+				labels[e] = edge.getKey();
+				children[e] = edge.getValue().id;
+				++e;
+			}
+		}
+		nodeStart[nodes.size()] = e;
+		fillRootEdges();
+	}
+
+	/**
+	 * Uses arrays already compiled, e.g. from a {@link TransducerSnapshot}.
+	 */
+	SymbolTokenizer(char[] labels, int[] children, int[] symbols, int[] nodeStart) {
+		this.labels = labels;
+		this.children = children;
+		this.symbols = symbols;
+		this.nodeStart = nodeStart;
+		fillRootEdges();
+	}
+
+	private void fillRootEdges() {
+		Arrays.fill(rootEdges, -1);
+		for (int i = nodeStart[0]; i < nodeStart[1]; ++i)
+			if (labels[i] < DENSE) rootEdges[labels[i]] = i;
+	}
+
+	/**
+	 * @return the size of the compiled trie in bytes
+	 */
+	long size() {
+		return 2l * labels.length + 4l * (children.length + symbols.length + nodeStart.length + rootEdges.length);
+	}
+
+	/** Smallest code point for each UTF-8 sequence length, to reject overlong forms */
+	private static final int[] UTF8_MIN = { 0, 0, 0x80, 0x800, 0x10000 };
+
+	private int edge(int node, char c) {
+		if (node == 0 && c < DENSE) return rootEdges[c];
+		int lo = nodeStart[node];
+		int hi = nodeStart[node + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char l = labels[mid];
+			if (l < c)
+				lo = mid + 1;
+			else if (l > c)
+				hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the node reached from the node with the character, or -1
+	 */
+	private int step(int node, char c) {
+		int e = edge(node, c);
+		return e < 0 ? -1 : children[e];
+	}
+
+	/**
+	 * Tokenizes <code>str</code> from <code>offset</code> until
+	 * <code>end</code>, appending the symbol numbers to <code>out</code>.
+	 *
+	 * @return false if some part of the input does not start any input
+	 *         symbol, in which case only the symbols before it have been
+	 *         appended
+	 */
+	public boolean tokenize(CharSequence str, int offset, int end, IntArrayList out) {
+		return tokenize(str, offset, end, out, -1);
+	}
+
+	/**
+	 * Tokenizes like {@link #tokenize(CharSequence, int, int, IntArrayList)},
+	 * but appends <code>unknown</code> in place of each character, or
+	 * surrogate pair, that does not start any input symbol and carries on.
+	 *
+	 * @param unknown
+	 *            the number to append for unknown characters, or -1 to stop at
+	 *            the first one
+	 * @return false if stopped at an unknown character
+	 */
+	boolean tokenize(CharSequence str, int offset, int end, IntArrayList out, int unknown) {
+		int pos = offset;
+		while (pos < end) {
+			int symbol = 0;
+			int matchEnd = pos;
+			int node = 0;
+			for (int i = pos; i < end; ++i) {
+				node = step(node, str.charAt(i));
+				if (node < 0) break;
+				if (symbols[node] != 0) {
+					symbol = symbols[node];
+					matchEnd = i + 1;
+				}
+			}
+			if (symbol == 0) {
+				if (unknown < 0) return false;
+				symbol = unknown;
+				matchEnd = pos + (Character.isHighSurrogate(str.charAt(pos)) && pos + 1 < end && Character.isLowSurrogate(str.charAt(pos + 1)) ? 2 : 1);
+			}
+			out.add(symbol);
+			pos = matchEnd;
+		}
+		return true;
+	}
+
+	/**
+	 * Tokenizes the UTF-8 bytes from <code>offset</code> until
+	 * <code>end</code>, appending the symbol numbers to <code>out</code>.
+	 * Malformed input does not match any symbol.
+	 *
+	 * @return false if some part of the input does not start any input
+	 *         symbol, in which case only the symbols before it have been
+	 *         appended
+	 */
+	public boolean tokenize(byte[] utf8, int offset, int end, IntArrayList out) {
+		return tokenize(utf8, null, offset, end, out);
+	}
+
+	/**
+	 * Tokenizes the UTF-8 bytes from the absolute index <code>offset</code>
+	 * until <code>end</code>, leaving the position of the buffer untouched.
+	 *
+	 * @see #tokenize(byte[], int, int, IntArrayList)
+	 */
+	public boolean tokenize(ByteBuffer utf8, int offset, int end, IntArrayList out) {
+		return tokenize(null, utf8, offset, end, out);
+	}
+
+	private static int byteAt(byte[] array, ByteBuffer buffer, int i) {
+		return (array != null ? array[i] : buffer.get(i)) & 0xFF;
+	}
+
+	private boolean tokenize(byte[] array, ByteBuffer buffer, int offset, int end, IntArrayList out) {
+		int pos = offset;
+		while (pos < end) {
+			int symbol = 0;
+			int matchEnd = pos;
+			int node = 0;
+			int i = pos;
+			decode: while (i < end) {
+				int lead = byteAt(array, buffer, i);
+				int n = lead < 0x80 ? 1 : lead < 0xC2 ? 0 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : lead < 0xF5 ? 4 : 0;
+				if (n == 0 || i + n > end) break;
+				int cp = n == 1 ? lead : lead & (0x7F >> n);
+				for (int k = 1; k < n; ++k) {
+					int b = byteAt(array, buffer, i + k);
+					if ((b & 0xC0) != 0x80) break decode;
+					cp = cp << 6 | b & 0x3F;
+				}
+				if (cp < UTF8_MIN[n] || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) break;
+				if (n < 4)
+					node = step(node, (char) cp);
+				else {
+					node = step(node, Character.highSurrogate(cp));
+					if (node >= 0) node = step(node, Character.lowSurrogate(cp));
+				}
+				if (node < 0) break;
+				i += n;
+				if (symbols[node] != 0) {
+					symbol = symbols[node];
+					matchEnd = i;
+				}
+			}
+			if (symbol == 0) return false;
+			out.add(symbol);
+			pos = matchEnd;
+		}
+		return true;
+	}
+}
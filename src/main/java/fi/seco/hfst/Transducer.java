@@ -1,5 +1,6 @@
 package fi.seco.hfst;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface Transducer {
@@ -28,4 +29,57 @@ public interface Transducer {
 			return symbols + ": " + weight;
 		}
 	}
+
+	/**
+	 * An analysis as output symbol numbers, indexes to
+	 * {@link Transducer#getAlphabet()}. Equal when both the symbols and the
+	 * weight are.
+	 */
+	public static final class IdResult {
+		private final int[] symbols;
+		private final float weight;
+
+		public IdResult(int[] symbols, float weight) {
+			this.symbols = symbols;
+			this.weight = weight;
+		}
+
+		/**
+		 * @return the symbol numbers, not to be modified
+		 */
+		public final int[] getSymbolIds() {
+			return symbols;
+		}
+
+		public final float getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Appends the surface form of the analysis.
+		 * 
+		 * @return sb
+		 */
+		public StringBuilder appendTo(SymbolTable table, StringBuilder sb) {
+			return table.append(symbols, symbols.length, sb);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof IdResult)) return false;
+			IdResult r = (IdResult) o;
+			return Float.floatToIntBits(weight) == Float.floatToIntBits(r.weight) && Arrays.equals(symbols, r.symbols);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(symbols) + Float.floatToIntBits(weight);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(symbols) + ": " + weight;
+		}
+	}
 }
@@ -8,6 +8,7 @@ import com.carrotsearch.hppc.IntObjectMap;
 import com.carrotsearch.hppc.IntObjectHashMap;
 import com.carrotsearch.hppc.ObjectIntMap;
 import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.cursors.IntObjectCursor;
 
 /**
  * On instantiation reads the transducer's alphabet and provides an interface to
@@ -18,7 +19,18 @@ public class TransducerAlphabet {
 	public IntObjectMap<FlagDiacriticOperation> operations;
 	public int features;
 
+	/**
+	 * Uses an alphabet already parsed, e.g. from a {@link TransducerSnapshot}.
+	 */
+	TransducerAlphabet(ArrayList<String> keyTable, IntObjectMap<FlagDiacriticOperation> operations, int features) {
+		this.keyTable = keyTable;
+		this.operations = operations;
+		this.features = features;
+	}
+
 	public TransducerAlphabet(DataInputStream charstream, int number_of_symbols) throws java.io.IOException {
+		Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.ALPHABET);
+		long bytes = 0;
 		keyTable = new ArrayList<String>();
 		operations = new IntObjectHashMap<FlagDiacriticOperation>();
 		ObjectIntMap<String> feature_bucket = new ObjectIntHashMap<String>();
@@ -40,6 +52,7 @@ public class TransducerAlphabet {
 					chars.add(charstream.readByte());
 				else chars.set(charindex,charstream.readByte());
 			}
+			bytes += charindex + 1;
 			String ustring = new String(chars.toArray(), 0, charindex, "UTF-8");
 			if (ustring.length() > 5 && ustring.charAt(0) == '@' && ustring.charAt(ustring.length() - 1) == '@' && ustring.charAt(2) == '.') { // flag diacritic identified
 				HfstOptimizedLookup.FlagDiacriticOperator op;
@@ -86,9 +99,21 @@ public class TransducerAlphabet {
 				i++;
 				continue;
 			}
-			keyTable.add(ustring);
+			keyTable.add(ustring.intern());
 			i++;
 		}
 		keyTable.set(0, ""); // epsilon is zero
+		TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.ALPHABET, bytes);
+	}
+
+	/**
+	 * @return the flag diacritic operations as an array indexed by symbol
+	 *         number, null for symbols that are not flag diacritics
+	 */
+	public FlagDiacriticOperation[] getOperationTable() {
+		FlagDiacriticOperation[] table = new FlagDiacriticOperation[keyTable.size()];
+		for (IntObjectCursor<FlagDiacriticOperation> c : operations)
+			table[c.key] = c.value;
+		return table;
 	}
 }
@@ -0,0 +1,102 @@
+package fi.seco.hfst;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Receives the phases of loading transducers and the lookups done, e.g. to
+ * emit them as profiler events. At most one receiver is installed at a time:
+ * the first one found as a {@link ServiceLoader} service when this class is
+ * initialized, such as the Java Flight Recorder events of the
+ * <code>hfst-jfr</code> module, or one set with
+ * {@link #install(TransducerEvents)}. Without one, loading and lookups only
+ * pay for checking that none is installed.
+ * <p>
+ * Each phase or lookup is announced when it starts and when it finishes,
+ * with the handle returned for its start, from the thread doing it.
+ * Receivers must be thread safe, and should be installed before any
+ * transducers are loaded, so that no phase finishes on a different receiver
+ * than it started on.
+ */
+public abstract class TransducerEvents {
+
+	public static enum LoadPhase {
+		HEADER, ALPHABET, TOKENIZER, INDEX_TABLE, TRANSITION_TABLE
+	}
+
+	private static volatile TransducerEvents installed = discover();
+
+	private static TransducerEvents discover() {
+		try {
+			Iterator<TransducerEvents> it = ServiceLoader.load(TransducerEvents.class, TransducerEvents.class.getClassLoader()).iterator();
+			if (it.hasNext()) return it.next();
+		} catch (ServiceConfigurationError e) {
+			// e.g. a receiver needing a newer Java version than the running one
+		} catch (LinkageError e) {}
+		return null;
+	}
+
+	/**
+	 * @param events
+	 *            the receiver to use from now on, or null for none
+	 */
+	public static void install(TransducerEvents events) {
+		installed = events;
+	}
+
+	/**
+	 * @return the receiver in use, or null
+	 */
+	public static TransducerEvents getInstalled() {
+		return installed;
+	}
+
+	/**
+	 * @return a handle for {@link #loadFinished(Object, LoadPhase, long)},
+	 *         e.g. an event begun, or null if the phase is of no interest
+	 */
+	public abstract Object loadStarted(LoadPhase phase);
+
+	/**
+	 * @param bytes
+	 *            the size of the part of the transducer the phase read, or of
+	 *            the tokenizer compiled
+	 */
+	public abstract void loadFinished(Object handle, LoadPhase phase, long bytes);
+
+	/**
+	 * @return a handle for {@link #lookupFinished(Object, int, LookupContext)},
+	 *         or null if the lookup is of no interest
+	 */
+	public abstract Object lookupStarted();
+
+	/**
+	 * @param inputLength
+	 *            the length of the input in characters, or in bytes if UTF-8
+	 * @param ctx
+	 *            the context of the lookup, holding its step and result
+	 *            counts
+	 */
+	public abstract void lookupFinished(Object handle, int inputLength, LookupContext ctx);
+
+	static Object startLoad(LoadPhase phase) {
+		TransducerEvents events = installed;
+		return events != null ? events.loadStarted(phase) : null;
+	}
+
+	static void finishLoad(Object handle, LoadPhase phase, long bytes) {
+		TransducerEvents events = installed;
+		if (handle != null && events != null) events.loadFinished(handle, phase, bytes);
+	}
+
+	static Object startLookup() {
+		TransducerEvents events = installed;
+		return events != null ? events.lookupStarted() : null;
+	}
+
+	static void finishLookup(Object handle, int inputLength, LookupContext ctx) {
+		TransducerEvents events = installed;
+		if (handle != null && events != null) events.lookupFinished(handle, inputLength, ctx);
+	}
+}
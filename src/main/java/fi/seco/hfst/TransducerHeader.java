@@ -1,6 +1,7 @@
 package fi.seco.hfst;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * On instantiation reads the transducer's header and provides an interface to
@@ -24,23 +25,25 @@ public class TransducerHeader {
 	private final boolean has_input_epsilon_cycles;
 	private final boolean has_unweighted_input_epsilon_cycles;
 
-	private boolean hfst3;
+	private final boolean hfst3;
 	private final boolean intact;
+	/** Bytes read, including any HFST3 header */
+	private final int size;
 
 	/**
 	 * Read in the (56 bytes of) header information, which unfortunately is
 	 * mostly in little-endian unsigned form.
 	 */
 	public TransducerHeader(DataInputStream input) throws java.io.IOException {
-		hfst3 = false;
+		Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.HEADER);
 		intact = true; // could add some checks to toggle this and check outside
 		ByteArray head = new ByteArray(5);
 		input.readFully(head.getBytes());
-		if (begins_hfst3_header(head)) {
-			skip_hfst3_header(input);
-			input.read(head.getBytes());
-			hfst3 = true;
-		}
+		hfst3 = begins_hfst3_header(head);
+		if (hfst3) {
+			size = 56 + read_hfst3_header(input);
+			input.readFully(head.getBytes());
+		} else size = 56;
 		ByteArray b = new ByteArray(head, 56);
 		input.readFully(b.getBytes(), 5, 51);
 
@@ -60,6 +63,7 @@ public class TransducerHeader {
 		has_input_epsilon_transitions = b.getBool();
 		has_input_epsilon_cycles = b.getBool();
 		has_unweighted_input_epsilon_cycles = b.getBool();
+		TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.HEADER, size);
 	}
 
 	public boolean begins_hfst3_header(ByteArray bytes) {
@@ -69,9 +73,38 @@ public class TransducerHeader {
 	}
 
 	public void skip_hfst3_header(DataInputStream file) throws java.io.IOException {
+		read_hfst3_header(file);
+	}
+
+	/**
+	 * Reads the rest of the HFST3 header after its "HFST\0" magic.
+	 *
+	 * @return the size of the whole HFST3 header
+	 */
+	private static int read_hfst3_header(DataInputStream file) throws java.io.IOException {
 		ByteArray len = new ByteArray(2);
 		file.readFully(len.getBytes());
-		file.skip(len.getUShort() + 1);
+		int length = len.getUShort();
+		file.readFully(new byte[length + 1]);
+		return hfst3HeaderSize(length);
+	}
+
+	/**
+	 * @return the size of the HFST3 header with properties of the given
+	 *         length: the "HFST\0" magic, the length, a zero byte and the
+	 *         properties
+	 */
+	private static int hfst3HeaderSize(int length) {
+		return 8 + length;
+	}
+
+	/**
+	 * @return the size of the HFST3 header at the start of the little-endian
+	 *         buffer, or 0 if it has none
+	 */
+	static int hfst3HeaderSize(ByteBuffer head) {
+		if (head.limit() < 8 || head.get(0) != 'H' || head.get(1) != 'F' || head.get(2) != 'S' || head.get(3) != 'T' || head.get(4) != 0) return 0;
+		return hfst3HeaderSize(head.getShort(5) & 0xFFFF);
 	}
 
 	public int getInputSymbolCount() {
@@ -94,11 +127,40 @@ public class TransducerHeader {
 		return weighted;
 	}
 
+	public boolean hasInputEpsilonCycles() {
+		return has_input_epsilon_cycles;
+	}
+
+	public boolean hasUnweightedInputEpsilonCycles() {
+		return has_unweighted_input_epsilon_cycles;
+	}
+
 	public boolean hasHfst3Header() {
 		return hfst3;
 	}
 
+	/**
+	 * @return the number of bytes the header took in the file, including any
+	 *         HFST3 header, i.e. the offset of the alphabet
+	 */
+	public int getSize() {
+		return size;
+	}
+
 	public boolean isIntact() {
 		return intact;
 	}
+
+	/**
+	 * Writes the header in its 56 byte optimized-lookup form, without any
+	 * HFST3 header, into the little-endian buffer.
+	 */
+	void write(ByteBuffer out) {
+		out.putShort((short) number_of_input_symbols).putShort((short) number_of_symbols);
+		out.putInt(size_of_transition_index_table).putInt(size_of_transition_target_table);
+		out.putInt(number_of_states).putInt(number_of_transitions);
+		boolean[] properties = { weighted, deterministic, input_deterministic, minimized, cyclic, has_epsilon_epsilon_transitions, has_input_epsilon_transitions, has_input_epsilon_cycles, has_unweighted_input_epsilon_cycles };
+		for (boolean p : properties)
+			out.putInt(p ? 1 : 0);
+	}
 }
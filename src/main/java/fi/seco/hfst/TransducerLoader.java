@@ -0,0 +1,248 @@
+package fi.seco.hfst;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Opens transducer files, detecting from the header whether a weighted or an
+ * unweighted transducer is needed.
+ */
+public final class TransducerLoader {
+
+	/** Table entries decoded per task when loading in parallel */
+	private static final int CHUNK = 1 << 16;
+
+	private static final class SharedPool {
+		/** Daemon workers, as many as there are processors */
+		static final ForkJoinPool INSTANCE = new ForkJoinPool();
+	}
+
+	private TransducerLoader() {}
+
+	/**
+	 * Maps the transducer file into memory. Only the header and the alphabet
+	 * are parsed; the index and transition tables are read in place from the
+	 * mapping, so they take no heap space, load in time independent of their
+	 * size and are shared through the page cache by everyone mapping the same
+	 * file.
+	 * <p>
+	 * Snapshots written by {@link TransducerSnapshot#write(File, File)} are
+	 * recognized and mapped as well.
+	 */
+	public static SinkTransducer map(File file) throws IOException {
+		return map(file, false);
+	}
+
+	/**
+	 * Maps the transducer file into memory like {@link #map(File)}, but if
+	 * lazy, decodes the tables from the mapping onto the heap a page of 1024
+	 * entries at a time on first access. Loading still takes constant time and
+	 * the heap only holds the pages actually used, while lookups in them avoid
+	 * decoding entries from the mapping again and again.
+	 */
+	public static SinkTransducer map(File file, boolean lazy) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (TransducerSnapshot.isSnapshot(buffer)) return TransducerSnapshot.read(buffer, lazy);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		DataInputStream charstream = new DataInputStream(new ByteBufferInputStream(buffer));
+		TransducerHeader h = new TransducerHeader(charstream);
+		TransducerAlphabet a = new TransducerAlphabet(charstream, h.getSymbolCount());
+		if (h.isWeighted()) return new WeightedTransducer(buffer, h, a, null, lazy);
+		return new UnweightedTransducer(buffer, h, a, null, lazy);
+	}
+
+	/**
+	 * Reads an optimized-lookup transducer from the stream onto the heap, e.g.
+	 * from a resource that cannot be mapped. The stream is not closed.
+	 */
+	public static SinkTransducer read(InputStream in) throws IOException {
+		DataInputStream charstream = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 65536));
+		TransducerHeader h = new TransducerHeader(charstream);
+		TransducerAlphabet a = new TransducerAlphabet(charstream, h.getSymbolCount());
+		if (h.isWeighted()) return new WeightedTransducer(charstream, h, a);
+		return new UnweightedTransducer(charstream, h, a);
+	}
+
+	/**
+	 * Reads the transducer file onto the heap in parallel, on a pool of as
+	 * many threads as there are processors shared by all such loads.
+	 *
+	 * @see #load(File, ForkJoinPool)
+	 */
+	public static SinkTransducer load(File file) throws IOException {
+		return load(file, SharedPool.INSTANCE);
+	}
+
+	/**
+	 * Reads the transducer file onto the heap like reading it from a stream,
+	 * but in parallel on the pool. Once the header and the alphabet are read,
+	 * the offsets of the index and transition tables are known, so they are
+	 * read with positional reads and decoded in chunks by separate tasks while
+	 * another task compiles the tokenizer.
+	 * <p>
+	 * Snapshots are mapped as with {@link #map(File)} instead.
+	 */
+	public static SinkTransducer load(File file, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer head = read(channel, 0, 56);
+			if (TransducerSnapshot.isSnapshot(head)) return map(file);
+			int hfst3 = TransducerHeader.hfst3HeaderSize(head);
+			if (hfst3 > 0) head = read(channel, 0, hfst3 + 56);
+			final TransducerHeader h = new TransducerHeader(new DataInputStream(new ByteBufferInputStream(head)));
+			int alphabetSize = alphabetSize(channel, h.getSize(), h.getSymbolCount());
+			final TransducerAlphabet a = new TransducerAlphabet(new DataInputStream(new ByteBufferInputStream(read(channel, h.getSize(), alphabetSize))), h.getSymbolCount());
+			ForkJoinTask<SymbolTokenizer> tokenizer = pool.submit(new Callable<SymbolTokenizer>() {
+				@Override
+				public SymbolTokenizer call() {
+					Object event = TransducerEvents.startLoad(TransducerEvents.LoadPhase.TOKENIZER);
+					SymbolTokenizer t = new SymbolTokenizer(a.keyTable, h.getInputSymbolCount());
+					TransducerEvents.finishLoad(event, TransducerEvents.LoadPhase.TOKENIZER, t.size());
+					return t;
+				}
+			});
+			long indexOffset = (long) h.getSize() + alphabetSize;
+			int[] indexEntries = new int[h.getIndexTableSize() << 1];
+			int[] transitionEntries = new int[h.getTargetTableSize() * (h.isWeighted() ? 3 : 2)];
+			Object indexEvent = TransducerEvents.startLoad(TransducerEvents.LoadPhase.INDEX_TABLE);
+			Object transitionEvent = TransducerEvents.startLoad(TransducerEvents.LoadPhase.TRANSITION_TABLE);
+			ForkJoinTask<Void> index = pool.submit(new DecodeTask(channel, indexOffset, indexEntries, false, false, 0, h.getIndexTableSize()));
+			ForkJoinTask<Void> transitions = pool.submit(new DecodeTask(channel, indexOffset + h.getIndexTableSize() * 6l, transitionEntries, true, h.isWeighted(), 0, h.getTargetTableSize()));
+			try {
+				index.join();
+				TransducerEvents.finishLoad(indexEvent, TransducerEvents.LoadPhase.INDEX_TABLE, h.getIndexTableSize() * 6l);
+				transitions.join();
+				TransducerEvents.finishLoad(transitionEvent, TransducerEvents.LoadPhase.TRANSITION_TABLE, h.getTargetTableSize() * (h.isWeighted() ? 12l : 8l));
+				if (h.isWeighted()) return new WeightedTransducer(h, a, tokenizer.join(), indexEntries, transitionEntries);
+				return new UnweightedTransducer(h, a, tokenizer.join(), indexEntries, transitionEntries);
+			} catch (RuntimeException e) {
+				for (Throwable t = e; t != null; t = t.getCause())
+					if (t instanceof IOException) throw (IOException) t;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Reads and decodes a range of index or transition table entries,
+	 * splitting it in halves down to chunks of {@link #CHUNK} entries.
+	 */
+	private static final class DecodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/** A chunk of the widest entries per worker, reused between tasks */
+		private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+			@Override
+			protected ByteBuffer initialValue() {
+				return ByteBuffer.allocate(CHUNK * 12).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		};
+
+		private final FileChannel channel;
+		private final long offset;
+		private final int[] entries;
+		private final boolean transitions;
+		private final boolean weighted;
+		private final int first;
+		private final int count;
+
+		DecodeTask(FileChannel channel, long offset, int[] entries, boolean transitions, boolean weighted, int first, int count) {
+			this.channel = channel;
+			this.offset = offset;
+			this.entries = entries;
+			this.transitions = transitions;
+			this.weighted = weighted;
+			this.first = first;
+			this.count = count;
+		}
+
+		@Override
+		protected void compute() {
+			if (count > CHUNK) {
+				int half = count >>> 1;
+				invokeAll(new DecodeTask(channel, offset, entries, transitions, weighted, first, half), new DecodeTask(channel, offset, entries, transitions, weighted, first + half, count - half));
+				return;
+			}
+			int entrySize = !transitions ? 6 : weighted ? 12 : 8;
+			ByteBuffer b = buffers.get();
+			b.clear().limit(count * entrySize);
+			try {
+				readFully(channel, offset + (long) first * entrySize, b);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (transitions)
+				LookupCore.TransitionTable.decode(b, entries, first, count, weighted);
+			else LookupCore.IndexTable.decode(b, entries, first, count);
+		}
+	}
+
+	/**
+	 * @return the length of the <code>symbols</code> zero-terminated strings
+	 *         starting at <code>offset</code>
+	 */
+	private static int alphabetSize(FileChannel channel, long offset, int symbols) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(65536);
+		long position = offset;
+		int remaining = symbols;
+		while (remaining > 0) {
+			b.clear();
+			int n = channel.read(b, position);
+			if (n < 0) throw new EOFException("Transducer alphabet truncated");
+			for (int i = 0; i < n; ++i)
+				if (b.get(i) == 0 && --remaining == 0) return (int) (position + i + 1 - offset);
+			position += n;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the <code>length</code> bytes at <code>position</code> in a
+	 *         little-endian buffer
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, position, b);
+		return b;
+	}
+
+	/**
+	 * Fills the buffer from its position until its limit with the bytes at
+	 * <code>position</code> and flips it.
+	 */
+	private static void readFully(FileChannel channel, long position, ByteBuffer b) throws IOException {
+		int start = b.position();
+		while (b.hasRemaining())
+			if (channel.read(b, position + b.position() - start) < 0) throw new EOFException("Transducer file truncated: needed " + (b.limit() - start) + " bytes at " + position);
+		b.flip();
+	}
+
+	/**
+	 * Returns a little-endian view of the next <code>length</code> bytes of the
+	 * buffer indexed from zero, and advances the buffer past them.
+	 */
+	static ByteBuffer slice(ByteBuffer buffer, int length) {
+		if (buffer.remaining() < length) throw new IllegalArgumentException("Transducer table truncated: needed " + length + " bytes, " + buffer.remaining() + " available");
+		ByteBuffer table = buffer.slice();
+		table.limit(length);
+		buffer.position(buffer.position() + length);
+		return table.order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,250 @@
+package fi.seco.hfst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares loaded transducers between their users, so that acquiring the same
+ * file or resource again neither loads it again nor takes more memory. The
+ * transducers are immutable and safe to use from many threads, so each one is
+ * loaded once and handed out behind reference counted leases.
+ * <p>
+ * Concurrent acquisitions of a transducer not loaded yet wait for a single
+ * load instead of each starting their own; a load that fails is not
+ * remembered, so a later acquisition tries again. When the last lease of a
+ * transducer is closed, it is dropped at once, or with a memory budget, kept
+ * for reuse until the transducers loaded exceed the budget, evicting the least
+ * recently released first. Transducers in use are never evicted, so the budget
+ * may be exceeded by them. Dropped transducers are freed, and their mappings
+ * unmapped, by the garbage collector once no lookup uses them anymore.
+ * <p>
+ * Files are mapped with {@link TransducerLoader#map(File)} and resources read
+ * with {@link TransducerLoader#read(InputStream)}.
+ */
+public final class TransducerRegistry {
+
+	/**
+	 * A reference to a shared transducer, to be closed when no longer needed.
+	 * The transducer must not be used after closing the lease.
+	 */
+	public final class Lease implements Closeable {
+		private final Entry entry;
+		private final SinkTransducer transducer;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Lease(Entry entry, SinkTransducer transducer) {
+			this.entry = entry;
+			this.transducer = transducer;
+		}
+
+		public SinkTransducer get() {
+			return transducer;
+		}
+
+		/**
+		 * Releases the transducer; closing a lease again has no effect.
+		 */
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) release(entry);
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		final FutureTask<SinkTransducer> load;
+		int references;
+		long size;
+
+		Entry(String key, Callable<SinkTransducer> loader) {
+			this.key = key;
+			this.load = new FutureTask<SinkTransducer>(loader);
+		}
+	}
+
+	private static final class Shared {
+		static final TransducerRegistry INSTANCE = new TransducerRegistry();
+	}
+
+	private final long budget;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	/** Loaded entries without references, least recently released first */
+	private final LinkedHashMap<String, Entry> idle = new LinkedHashMap<String, Entry>();
+	private long loadedSize;
+
+	/**
+	 * Creates a registry dropping each transducer as soon as it is released.
+	 */
+	public TransducerRegistry() {
+		this(0);
+	}
+
+	/**
+	 * @param budget
+	 *            bytes of transducer tables to keep loaded for reuse after
+	 *            their release, or 0 to keep none
+	 */
+	public TransducerRegistry(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget must not be negative, was " + budget);
+		this.budget = budget;
+	}
+
+	/**
+	 * @return a registry shared by the whole JVM, which keeps no released
+	 *         transducers
+	 */
+	public static TransducerRegistry getShared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Acquires the transducer in the file, mapping it if it is not loaded
+	 * already. Files are identified by their canonical path.
+	 */
+	public Lease acquire(File file) throws IOException {
+		final File canonical = file.getCanonicalFile();
+		return acquire("file:" + canonical.getPath(), new Callable<SinkTransducer>() {
+			@Override
+			public SinkTransducer call() throws IOException {
+				return TransducerLoader.map(canonical);
+			}
+		});
+	}
+
+	/**
+	 * Acquires the transducer in the resource of the class loader of this
+	 * class.
+	 *
+	 * @see #acquire(String, ClassLoader)
+	 */
+	public Lease acquire(String resource) throws IOException {
+		return acquire(resource, TransducerRegistry.class.getClassLoader());
+	}
+
+	/**
+	 * Acquires the transducer in the resource, reading it onto the heap if it
+	 * is not loaded already. Resources are identified by their name and class
+	 * loader.
+	 */
+	public Lease acquire(final String resource, final ClassLoader loader) throws IOException {
+		return acquire("resource:" + System.identityHashCode(loader) + ":" + resource, new Callable<SinkTransducer>() {
+			@Override
+			public SinkTransducer call() throws IOException {
+				InputStream in = loader.getResourceAsStream(resource);
+				if (in == null) throw new FileNotFoundException("Transducer resource not found: " + resource);
+				try {
+					return TransducerLoader.read(in);
+				} finally {
+					in.close();
+				}
+			}
+		});
+	}
+
+	private Lease acquire(String key, Callable<SinkTransducer> loader) throws IOException {
+		Entry e;
+		boolean owner = false;
+		synchronized (this) {
+			e = entries.get(key);
+			if (e == null) {
+				e = new Entry(key, loader);
+				entries.put(key, e);
+				owner = true;
+			}
+			++e.references;
+			idle.remove(key);
+		}
+		if (owner) load(e);
+		try {
+			return new Lease(e, e.load.get());
+		} catch (ExecutionException ex) {
+			release(e);
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		} catch (InterruptedException ex) {
+			release(e);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + key + " to load");
+		}
+	}
+
+	private void load(Entry e) {
+		e.load.run();
+		synchronized (this) {
+			try {
+				e.size = size(e.load.get());
+				loadedSize += e.size;
+				trim();
+			} catch (ExecutionException ex) {
+				// failed loads are forgotten, the waiting acquirers see the failure
+				entries.remove(e.key);
+			} catch (InterruptedException ex) {
+				throw new AssertionError(ex);
+			}
+		}
+	}
+
+	private synchronized void release(Entry e) {
+		if (--e.references > 0) return;
+		if (entries.get(e.key) != e) return;
+		if (budget == 0) {
+			entries.remove(e.key);
+			loadedSize -= e.size;
+		} else {
+			idle.put(e.key, e);
+			trim();
+		}
+	}
+
+	/**
+	 * Drops released transducers, least recently released first, until the
+	 * transducers loaded fit in the budget.
+	 */
+	private void trim() {
+		Iterator<Entry> it = idle.values().iterator();
+		while (loadedSize > budget && it.hasNext()) {
+			Entry e = it.next();
+			it.remove();
+			entries.remove(e.key);
+			loadedSize -= e.size;
+		}
+	}
+
+	/**
+	 * @return the number of transducers loaded or being loaded
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the bytes of index and transition tables of the transducers
+	 *         loaded, whether in use or kept for reuse
+	 */
+	public synchronized long getLoadedSize() {
+		return loadedSize;
+	}
+
+	/**
+	 * @return the size of the index and transition tables of the transducer
+	 */
+	static long size(SinkTransducer t) {
+		TransducerHeader h = ((LookupCore) t).header;
+		return h.getIndexTableSize() * 6l + h.getTargetTableSize() * (h.isWeighted() ? 12l : 8l);
+	}
+}
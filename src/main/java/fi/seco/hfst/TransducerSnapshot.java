@@ -0,0 +1,219 @@
+package fi.seco.hfst;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import com.carrotsearch.hppc.IntObjectHashMap;
+import com.carrotsearch.hppc.IntObjectMap;
+
+/**
+ * Writes and maps snapshots of transducers, which hold everything the lookup
+ * needs already in its final form: the symbol strings, the flag diacritic
+ * operation table, the compiled {@link SymbolTokenizer} and the index and
+ * transition tables. Mapping a snapshot only copies out the symbols and the
+ * tokenizer arrays in bulk; the tables are used in place, as with
+ * {@link TransducerLoader#map(File)}.
+ * <p>
+ * The format is little-endian, each section starting at a multiple of eight
+ * bytes:
+ * <ol>
+ * <li>the magic bytes <code>HFSTSNAP</code> and the int format version</li>
+ * <li>the 56 byte optimized-lookup header</li>
+ * <li>the number of flag diacritic features, the number of characters in
+ * the symbols, and the number of tokenizer edges and nodes</li>
+ * <li>the start offset of each symbol in the characters, and the end of the
+ * last one</li>
+ * <li>the symbol characters in UTF-16</li>
+ * <li>per symbol, the flag diacritic operator ordinal (or -1 for none),
+ * feature and value</li>
+ * <li>the tokenizer edge labels, edge targets, node symbols and node edge
+ * offsets</li>
+ * <li>the index table directly followed by the transition table, as in the
+ * transducer file</li>
+ * </ol>
+ * Snapshots are tied to the version of this library that wrote them; a
+ * snapshot of a different version is rejected rather than misread.
+ */
+public final class TransducerSnapshot {
+
+	private static final byte[] MAGIC = { 'H', 'F', 'S', 'T', 'S', 'N', 'A', 'P' };
+	static final int VERSION = 1;
+
+	private TransducerSnapshot() {}
+
+	/**
+	 * @return whether the buffer starts, at its position, with a snapshot
+	 */
+	public static boolean isSnapshot(ByteBuffer buffer) {
+		if (buffer.remaining() < MAGIC.length) return false;
+		for (int i = 0; i < MAGIC.length; ++i)
+			if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+		return true;
+	}
+
+	/**
+	 * Converts an optimized-lookup transducer file into a snapshot.
+	 */
+	public static void write(File transducer, File snapshot) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(transducer), 65536)); FileOutputStream out = new FileOutputStream(snapshot)) {
+			TransducerHeader h = new TransducerHeader(in);
+			TransducerAlphabet a = new TransducerAlphabet(in, h.getSymbolCount());
+			SymbolTokenizer t = new SymbolTokenizer(a.keyTable, h.getInputSymbolCount());
+			FlagDiacriticOperation[] operations = a.getOperationTable();
+			int symbols = a.keyTable.size();
+			int chars = 0;
+			for (String s : a.keyTable)
+				chars += s.length();
+
+			int size = 8 + 8 + align(56) + 16 + align(4 * (symbols + 1)) + align(2 * chars) + align(12 * symbols) + align(2 * t.labels.length) + align(4 * t.children.length) + align(4 * t.symbols.length) + align(4 * t.nodeStart.length);
+			ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			b.put(MAGIC).putInt(VERSION).putInt(0);
+			h.write(b);
+			pad(b);
+			b.putInt(a.features).putInt(chars).putInt(t.labels.length).putInt(t.symbols.length);
+			int offset = 0;
+			for (String s : a.keyTable) {
+				b.putInt(offset);
+				offset += s.length();
+			}
+			b.putInt(offset);
+			pad(b);
+			for (String s : a.keyTable)
+				for (int i = 0; i < s.length(); ++i)
+					b.putChar(s.charAt(i));
+			pad(b);
+			for (FlagDiacriticOperation op : operations)
+				if (op == null)
+					b.putInt(-1).putInt(0).putInt(0);
+				else b.putInt(op.op.ordinal()).putInt(op.feature).putInt(op.value);
+			pad(b);
+			for (char c : t.labels)
+				b.putChar(c);
+			pad(b);
+			for (int[] array : new int[][] { t.children, t.symbols, t.nodeStart }) {
+				for (int i : array)
+					b.putInt(i);
+				pad(b);
+			}
+			out.write(b.array(), 0, b.position());
+			copy(in, out, h.getIndexTableSize() * 6l + h.getTargetTableSize() * (h.isWeighted() ? 12l : 8l));
+		}
+	}
+
+	/**
+	 * Maps a snapshot written by {@link #write(File, File)}.
+	 */
+	public static SinkTransducer map(File snapshot) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r")) {
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return read(buffer);
+	}
+
+	/**
+	 * Uses the snapshot starting at the position of the buffer, which must
+	 * stay unchanged as long as the transducer is used.
+	 */
+	public static SinkTransducer read(ByteBuffer buffer) throws IOException {
+		return read(buffer, false);
+	}
+
+	/**
+	 * @param lazy
+	 *            whether to decode the tables onto the heap a page at a time
+	 *            on first access, see {@link TransducerLoader#map(File, boolean)}
+	 */
+	public static SinkTransducer read(ByteBuffer buffer, boolean lazy) throws IOException {
+		ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (!isSnapshot(b)) throw new IOException("Not a transducer snapshot");
+		b.position(MAGIC.length);
+		int version = b.getInt();
+		if (version != VERSION) throw new IOException("Unsupported transducer snapshot version " + version + ", expected " + VERSION);
+		b.getInt();
+		TransducerHeader h = new TransducerHeader(new DataInputStream(new ByteBufferInputStream(TransducerLoader.slice(b, 56))));
+		skipPadding(b);
+		int features = b.getInt();
+		int chars = b.getInt();
+		int edges = b.getInt();
+		int nodes = b.getInt();
+		int symbols = h.getSymbolCount();
+
+		int[] offsets = new int[symbols + 1];
+		b.asIntBuffer().get(offsets);
+		b.position(b.position() + 4 * offsets.length);
+		skipPadding(b);
+		char[] text = new char[chars];
+		b.asCharBuffer().get(text);
+		b.position(b.position() + 2 * chars);
+		skipPadding(b);
+		ArrayList<String> keyTable = new ArrayList<String>(symbols);
+		for (int i = 0; i < symbols; ++i)
+			keyTable.add(new String(text, offsets[i], offsets[i + 1] - offsets[i]).intern());
+
+		HfstOptimizedLookup.FlagDiacriticOperator[] operators = HfstOptimizedLookup.FlagDiacriticOperator.values();
+		IntObjectMap<FlagDiacriticOperation> operations = new IntObjectHashMap<FlagDiacriticOperation>();
+		for (int i = 0; i < symbols; ++i) {
+			int op = b.getInt();
+			int feature = b.getInt();
+			int value = b.getInt();
+			if (op >= 0) operations.put(i, new FlagDiacriticOperation(operators[op], feature, value));
+		}
+		skipPadding(b);
+		TransducerAlphabet a = new TransducerAlphabet(keyTable, operations, features);
+
+		char[] labels = new char[edges];
+		b.asCharBuffer().get(labels);
+		b.position(b.position() + 2 * edges);
+		skipPadding(b);
+		int[] children = getInts(b, edges);
+		int[] nodeSymbols = getInts(b, nodes);
+		int[] nodeStart = getInts(b, nodes + 1);
+		SymbolTokenizer t = new SymbolTokenizer(labels, children, nodeSymbols, nodeStart);
+
+		if (h.isWeighted()) return new WeightedTransducer(b, h, a, t, lazy);
+		return new UnweightedTransducer(b, h, a, t, lazy);
+	}
+
+	private static int[] getInts(ByteBuffer b, int count) {
+		int[] array = new int[count];
+		b.asIntBuffer().get(array);
+		b.position(b.position() + 4 * count);
+		skipPadding(b);
+		return array;
+	}
+
+	private static void copy(DataInputStream in, FileOutputStream out, long length) throws IOException {
+		byte[] buf = new byte[65536];
+		while (length > 0) {
+			int n = (int) Math.min(buf.length, length);
+			in.readFully(buf, 0, n);
+			out.write(buf, 0, n);
+			length -= n;
+		}
+	}
+
+	private static int align(long size) {
+		return (int) ((size + 7) & ~7l);
+	}
+
+	private static void pad(ByteBuffer b) {
+		while ((b.position() & 7) != 0)
+			b.put((byte) 0);
+	}
+
+	private static void skipPadding(ByteBuffer b) {
+		b.position(align(b.position()));
+	}
+}
@@ -0,0 +1,124 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.seco.hfst.Transducer.Result;
+
+public class BatchAnalyzerTest {
+
+	@Test
+	public void matchesSequentialLookups() throws IOException, InterruptedException {
+		Random r = new Random(3);
+		TestTransducers t = TestTransducers.random(r, 8, true);
+		SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+		List<String> tokens = new LinkedList<String>();
+		for (int i = 0; i < 1000; ++i)
+			tokens.add(TestTransducers.randomInput(r, 3));
+		List<String> expected = new ArrayList<String>();
+		for (String token : tokens)
+			expected.add(tr.analyze(token).toString());
+		ForkJoinPool pool = new ForkJoinPool(3);
+		ExecutorService threads = Executors.newFixedThreadPool(3);
+		try {
+			for (ExecutorService executor : new ExecutorService[] { pool, threads })
+				for (int chunk : new int[] { 0, 1, 7, 5000 }) {
+					List<List<Result>> results = new BatchAnalyzer(tr, executor, chunk).analyze(tokens);
+					assertEquals(tokens.size(), results.size());
+					for (int i = 0; i < results.size(); ++i) {
+						assertEquals(executor + " " + chunk + " " + i, expected.get(i), results.get(i).toString());
+						assertTrue(results.get(i) instanceof ResultList);
+					}
+				}
+		} finally {
+			pool.shutdown();
+			threads.shutdown();
+		}
+	}
+
+	/**
+	 * A token taking a millisecond to read, counting the lookups.
+	 */
+	static final class SlowToken implements CharSequence {
+		static final AtomicInteger lookups = new AtomicInteger();
+
+		@Override
+		public int length() {
+			lookups.incrementAndGet();
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return 1;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return 'a';
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return "a";
+		}
+	}
+
+	@Test
+	public void interruptionStopsTheBatch() throws Exception {
+		final SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(TestTransducers.random(new Random(3), 4, false).toBytes(false)));
+		final List<CharSequence> tokens = new ArrayList<CharSequence>();
+		for (int i = 0; i < 2000; ++i)
+			tokens.add(new SlowToken());
+		ForkJoinPool pool = new ForkJoinPool(2);
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			for (final ExecutorService executor : new ExecutorService[] { pool, threads }) {
+				final AtomicBoolean interrupted = new AtomicBoolean();
+				Thread caller = new Thread() {
+					@Override
+					public void run() {
+						try {
+							new BatchAnalyzer(tr, executor, 1).analyze(tokens);
+						} catch (InterruptedException e) {
+							interrupted.set(true);
+						}
+					}
+				};
+				SlowToken.lookups.set(0);
+				caller.start();
+				Thread.sleep(50);
+				caller.interrupt();
+				caller.join();
+				assertTrue(executor.toString(), interrupted.get());
+				Thread.sleep(50); // let the chunks being analyzed finish
+				int stopped = SlowToken.lookups.get();
+				Thread.sleep(200);
+				assertEquals(executor.toString(), stopped, SlowToken.lookups.get());
+				assertTrue(executor.toString(), stopped < tokens.size());
+			}
+		} finally {
+			pool.shutdown();
+			threads.shutdown();
+		}
+	}
+}
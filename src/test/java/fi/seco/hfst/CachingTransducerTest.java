@@ -0,0 +1,46 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CachingTransducerTest {
+
+	@Test
+	public void cachesCompleteLookupsOnly() throws IOException {
+		SinkTransducer tr = LookupLimitsTest.fourAnalyses();
+		((LookupCore) tr).setLimits(new LookupLimits(Long.MAX_VALUE, Integer.MAX_VALUE, 2, 0));
+		CachingTransducer cache = new CachingTransducer(tr, 10);
+		ResultList truncated = cache.analyze("a");
+		assertTrue(truncated.isTruncated());
+		assertEquals(2, truncated.size());
+		assertEquals(0, cache.size());
+		ResultList complete = cache.analyze("b");
+		assertFalse(complete.isTruncated());
+		assertEquals(1, cache.size());
+		assertSame(complete, cache.analyze("b"));
+		((LookupCore) tr).setLimits(LookupLimits.NONE);
+		assertEquals(4, cache.analyze("a").size());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	@Test
+	public void evictsUnreferencedEntries() throws IOException {
+		CachingTransducer cache = new CachingTransducer(LookupLimitsTest.fourAnalyses(), 2);
+		cache.analyze("a");
+		cache.analyze("b");
+		cache.analyze("a");
+		cache.analyze("c");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		cache.analyze("a");
+		assertEquals(2, cache.getHitCount());
+	}
+}
@@ -0,0 +1,74 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fi.seco.hfst.CorpusProfiler.Cost;
+import fi.seco.hfst.CorpusProfiler.Order;
+import fi.seco.hfst.CorpusProfiler.Profile;
+
+public class CorpusProfilerTest {
+
+	@Test
+	public void countsMatchLookups() throws IOException {
+		Random r = new Random(29);
+		SinkTransducer t = TransducerLoader.read(new ByteArrayInputStream(TestTransducers.random(r, 8, true).toBytes(false)));
+		StringBuilder corpus = new StringBuilder();
+		for (int i = 0; i < 300; ++i) {
+			String token = TestTransducers.randomInput(r, 3);
+			if (token.isEmpty()) continue;
+			corpus.append(token).append(r.nextInt(5) == 0 ? "\n" : r.nextBoolean() ? " " : " \t ");
+		}
+		List<String> tokens = CorpusProfiler.readTokens(new ByteArrayInputStream(corpus.toString().getBytes(TestTransducers.UTF8)));
+		assertEquals(corpus.toString().trim().split("\\s+").length, tokens.size());
+
+		int unknown = 0, analyses = 0, maxAnalyses = 0;
+		Map<String, Integer> occurrences = new HashMap<String, Integer>();
+		for (String token : tokens) {
+			int n = t.analyze(token).size();
+			if (n == 0) ++unknown;
+			analyses += n;
+			maxAnalyses = Math.max(maxAnalyses, n);
+			Integer o = occurrences.get(token);
+			occurrences.put(token, o == null ? 1 : o + 1);
+		}
+		assertTrue("too few unknown tokens: " + unknown, unknown > 10 && unknown < tokens.size() - 10);
+		assertTrue("no ambiguous tokens", maxAnalyses > 1);
+
+		Profile p = new CorpusProfiler(1).profile("test", t, tokens);
+		assertEquals(tokens.size(), p.getTokenCount());
+		assertEquals(occurrences.size(), p.getCosts().size());
+		assertEquals(tokens.size(), p.getMetrics().getLookupCount());
+		assertEquals(unknown, p.getMetrics().getEmptyCount());
+		assertEquals(analyses, p.getMetrics().getAnalysisCount());
+		for (Cost c : p.getCosts().values()) {
+			assertEquals(c.getInput(), t.analyze(c.getInput()).size(), c.getAnalyses());
+			assertEquals(c.getInput(), (int) occurrences.get(c.getInput()), c.getOccurrences());
+			assertTrue(c.getInput(), c.getMaxNanos() <= c.getTotalNanos());
+		}
+		List<Cost> top = CorpusProfiler.top(p, Order.ANALYSES, 5);
+		assertEquals(maxAnalyses, top.get(0).getAnalyses());
+		for (int i = 1; i < top.size(); ++i)
+			assertTrue(top.get(i - 1).getAnalyses() >= top.get(i).getAnalyses());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream print = new PrintStream(out, true, "UTF-8");
+		CorpusProfiler.report(p, Order.ANALYSES, 5, print);
+		CorpusProfiler.compare(p, new CorpusProfiler(0).profile("again", t, tokens), 5, print);
+		String report = new String(out.toByteArray(), TestTransducers.UTF8);
+		assertTrue(report, report.contains(String.format("%d tokens, %d distinct, %d unknown (%.1f%%)", tokens.size(), occurrences.size(), unknown, 100.0 * unknown / tokens.size())));
+		assertTrue(report, report.contains(String.format("%.2f analyses per token", (double) analyses / tokens.size())));
+		assertTrue(report, report.contains("0 inputs with a different number of analyses"));
+	}
+}
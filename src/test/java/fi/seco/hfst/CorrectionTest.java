@@ -0,0 +1,302 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * Checks the approximate lookup against brute force: every sequence of input
+ * symbols within the edit distance of the input, looked up with the original
+ * recursive lookup.
+ */
+public class CorrectionTest {
+
+	/** Input symbol standing for a character that starts none */
+	private static final int UNKNOWN = -1;
+
+	/**
+	 * @return the input symbols of the string by greedy longest match, with
+	 *         {@link #UNKNOWN} for each character that starts none
+	 */
+	static int[] tokenize(ReferenceLookup reference, String input) {
+		List<Integer> symbols = new ArrayList<Integer>();
+		int pos = 0;
+		while (pos < input.length()) {
+			int best = UNKNOWN, length = Character.charCount(input.codePointAt(pos));
+			for (int s = 1, longest = 0; s < reference.inputSymbols; ++s) {
+				String k = reference.keyTable.get(s);
+				if (k.length() > longest && input.startsWith(k, pos)) {
+					best = s;
+					length = longest = k.length();
+				}
+			}
+			symbols.add(best);
+			pos += length;
+		}
+		return toArray(symbols);
+	}
+
+	private static int[] toArray(List<Integer> l) {
+		int[] r = new int[l.size()];
+		for (int i = 0; i < r.length; ++i)
+			r[i] = l.get(i);
+		return r;
+	}
+
+	/**
+	 * @return the optimal string alignment distance, counting insertions,
+	 *         deletions, substitutions and transpositions of adjacent symbols
+	 */
+	static int distance(int[] a, int[] b) {
+		int[][] d = new int[a.length + 1][b.length + 1];
+		for (int i = 0; i <= a.length; ++i)
+			d[i][0] = i;
+		for (int j = 0; j <= b.length; ++j)
+			d[0][j] = j;
+		for (int i = 1; i <= a.length; ++i)
+			for (int j = 1; j <= b.length; ++j) {
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + (a[i - 1] == b[j - 1] ? 0 : 1));
+				if (i > 1 && j > 1 && a[i - 1] == b[j - 2] && a[i - 2] == b[j - 1]) d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+			}
+		return d[a.length][b.length];
+	}
+
+	/**
+	 * @return every sequence of known input symbols reached from the input
+	 *         by at most maxEdits edits, a superset of those within that
+	 *         distance
+	 */
+	static Set<List<Integer>> neighbours(int[] input, int maxEdits, int inputSymbols) {
+		Set<List<Integer>> all = new HashSet<List<Integer>>();
+		List<Integer> start = new ArrayList<Integer>();
+		for (int s : input)
+			start.add(s);
+		all.add(start);
+		List<List<Integer>> frontier = new ArrayList<List<Integer>>(all);
+		for (int e = 0; e < maxEdits; ++e) {
+			List<List<Integer>> next = new ArrayList<List<Integer>>();
+			for (List<Integer> w : frontier) {
+				List<List<Integer>> edited = new ArrayList<List<Integer>>();
+				for (int i = 0; i <= w.size(); ++i)
+					for (int s = 1; s < inputSymbols; ++s) {
+						List<Integer> v = new ArrayList<Integer>(w);
+						v.add(i, s);
+						edited.add(v);
+					}
+				for (int i = 0; i < w.size(); ++i) {
+					List<Integer> v = new ArrayList<Integer>(w);
+					v.remove(i);
+					edited.add(v);
+					for (int s = 1; s < inputSymbols; ++s) {
+						v = new ArrayList<Integer>(w);
+						v.set(i, s);
+						edited.add(v);
+					}
+					if (i + 1 < w.size()) {
+						v = new ArrayList<Integer>(w);
+						v.set(i, w.get(i + 1));
+						v.set(i + 1, w.get(i));
+						edited.add(v);
+					}
+				}
+				for (List<Integer> v : edited)
+					if (all.add(v)) next.add(v);
+			}
+			frontier = next;
+		}
+		return all;
+	}
+
+	static final class Expected {
+		int edits = Integer.MAX_VALUE;
+		float weight;
+		String analyses;
+	}
+
+	/**
+	 * @return the corrections of the input by surface, as the approximate
+	 *         lookup should find them
+	 */
+	static Map<String, Expected> bruteForce(ReferenceLookup reference, String input, int maxEdits) {
+		int[] tokens = tokenize(reference, input);
+		Map<String, Expected> expected = new LinkedHashMap<String, Expected>();
+		for (List<Integer> candidate : neighbours(tokens, maxEdits, reference.inputSymbols)) {
+			if (candidate.contains(UNKNOWN)) continue;
+			int[] symbols = toArray(candidate);
+			int edits = distance(tokens, symbols);
+			if (edits > maxEdits || reference.analyze(symbols).isEmpty()) continue;
+			StringBuilder sb = new StringBuilder();
+			for (int s : symbols)
+				sb.append(reference.keyTable.get(s));
+			String surface = sb.toString();
+			if (surface.isEmpty()) continue;
+			Expected e = expected.get(surface);
+			if (e == null) {
+				List<Result> analyses = reference.analyze(surface);
+				if (analyses.isEmpty()) continue; // spelled by other symbols than its tokenization
+				e = new Expected();
+				e.weight = Float.POSITIVE_INFINITY;
+				for (Result r : analyses)
+					e.weight = Math.min(e.weight, r.getWeight());
+				e.analyses = analyses.toString();
+				expected.put(surface, e);
+			}
+			e.edits = Math.min(e.edits, edits);
+		}
+		return expected;
+	}
+
+	@Test
+	public void matchesBruteForce() throws IOException {
+		Random r = new Random(17);
+		int found = 0;
+		for (int n = 0; n < 60; ++n) {
+			TestTransducers t = TestTransducers.random(r, 2 + r.nextInt(8), n % 2 == 0);
+			byte[] bytes = t.toBytes(n % 3 == 0);
+			ReferenceLookup reference = new ReferenceLookup(bytes);
+			SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(bytes));
+			for (int i = 0; i < 8; ++i) {
+				String input = TestTransducers.randomInput(r, 3);
+				int maxEdits = i % 3;
+				Map<String, Expected> expected = bruteForce(reference, input, maxEdits);
+				List<Correction> corrections = tr.correct(input, maxEdits, 100000);
+				String where = n + " '" + input + "' " + maxEdits;
+				assertEquals(where + " " + corrections, expected.size(), corrections.size());
+				for (Correction c : corrections) {
+					Expected e = expected.get(c.getSurface());
+					assertTrue(where + " unexpected " + c, e != null);
+					assertEquals(where + " " + c, e.edits, c.getEdits());
+					assertEquals(where + " " + c, e.weight, c.getWeight(), 0.0f);
+					assertEquals(where + " " + c, e.analyses, c.getAnalyses().toString());
+				}
+				assertSorted(where, corrections);
+				found += corrections.size();
+
+				// only some of the best, still sorted and in the right order of edits
+				List<Correction> some = tr.correct(input, maxEdits, 3);
+				assertTrue(where, some.size() <= 3);
+				assertSorted(where, some);
+				int[] edits = new int[expected.size()];
+				int k = 0;
+				for (Expected e : expected.values())
+					edits[k++] = e.edits;
+				Arrays.sort(edits);
+				for (int j = 0; j < some.size(); ++j) {
+					Expected e = expected.get(some.get(j).getSurface());
+					assertTrue(where + " unexpected " + some.get(j), e != null);
+					assertTrue(where + " " + some, some.get(j).getEdits() <= edits[Math.min(2, edits.length - 1)]);
+				}
+			}
+		}
+		assertTrue("too few corrections: " + found, found > 200);
+	}
+
+	private static void assertSorted(String where, List<Correction> corrections) {
+		for (int i = 1; i < corrections.size(); ++i)
+			assertTrue(where + " " + corrections, Correction.ORDER.compare(corrections.get(i - 1), corrections.get(i)) <= 0);
+	}
+
+	/**
+	 * Many offers of few strings, through symbols spelling them in different
+	 * ways, keep each string once with its cheapest offer, also when kept
+	 * strings are evicted and offered again.
+	 */
+	@Test
+	public void bestCorrectionsKeepEachStringOnce() {
+		SymbolTable symbols = new SymbolTable(Arrays.asList("", "a", "b", "ab", "c"));
+		Random r = new Random(5);
+		for (int n : new int[] { 1, 3, 10, 30, 100, 1000 }) {
+			BestCorrections best = new BestCorrections(n, symbols);
+			Map<String, float[]> cheapest = new HashMap<String, float[]>();
+			for (int i = 0; i < 5000; ++i) {
+				int[] surface = new int[r.nextInt(5)];
+				StringBuilder sb = new StringBuilder();
+				for (int j = 0; j < surface.length; ++j)
+					sb.append(symbols.getChars(surface[j] = 1 + r.nextInt(4)));
+				int edits = r.nextInt(3);
+				float weight = r.nextInt(8) * 0.25f;
+				best.add(surface, surface.length, edits, weight);
+				float[] c = cheapest.get(sb.toString());
+				if (c == null || edits < c[0] || edits == c[0] && weight < c[1]) cheapest.put(sb.toString(), new float[] { edits, weight });
+			}
+			cheapest.remove("");
+			int[] order = best.order();
+			assertEquals(Math.min(n, cheapest.size()), order.length);
+			Set<String> kept = new HashSet<String>();
+			for (int i = 0; i < order.length; ++i) {
+				String surface = best.getSurface(order[i]);
+				assertTrue(surface, kept.add(surface));
+				if (n >= cheapest.size()) {
+					assertEquals(surface, cheapest.get(surface)[0], best.getEdits(order[i]), 0.0f);
+					assertEquals(surface, cheapest.get(surface)[1], best.getWeight(order[i]), 0.0f);
+				}
+				if (i > 0) {
+					int a = order[i - 1], b = order[i];
+					assertTrue(best.getEdits(a) < best.getEdits(b) || best.getEdits(a) == best.getEdits(b) && best.getWeight(a) <= best.getWeight(b));
+				}
+			}
+		}
+	}
+
+	/**
+	 * "c" + "h" and "ch" spell the same correction, which is returned once
+	 * with its fewest edits, and a final start state does not correct
+	 * anything to the empty string.
+	 */
+	@Test
+	public void deduplicatesBySurface() throws IOException {
+		TestTransducers t = new TestTransducers(true);
+		int c = 3, h = 4, ch = 5;
+		int start = t.state(true, 0.5f);
+		int afterC = t.state(true, null);
+		int end = t.state(true, 0.0f);
+		t.arc(start, c, c, afterC, 1.0f);
+		t.arc(afterC, h, h, end, 1.0f);
+		t.arc(start, ch, ch, end, 3.0f);
+		SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+		List<Correction> corrections = tr.correct("c", 1, 10);
+		assertEquals(corrections.toString(), 1, corrections.size());
+		assertEquals("ch", corrections.get(0).getSurface());
+		assertEquals(1, corrections.get(0).getEdits());
+		assertEquals(3.0f, corrections.get(0).getWeight(), 0.0f);
+		assertEquals(1, corrections.get(0).getAnalyses().size());
+	}
+
+	/**
+	 * Transitions of a state in the transition table after the first run of
+	 * its input symbol are not followed, as in exact lookup.
+	 */
+	@Test
+	public void transitionTableStatesOnlyOfferTheirFirstSymbol() throws IOException {
+		TestTransducers t = new TestTransducers(false);
+		int a = 1, b = 2;
+		int start = t.state(true, null);
+		int plain = t.state(false, null);
+		int end = t.state(false, 0.0f);
+		t.arc(start, a, a, plain, 0);
+		t.arc(plain, a, a, end, 0);
+		t.arc(plain, b, b, end, 0);
+		SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+		assertTrue(tr.analyze("ab").isEmpty());
+		for (int n : new int[] { 1, 10 }) {
+			List<Correction> corrections = tr.correct("ab", 1, n);
+			assertEquals(corrections.toString(), 1, corrections.size());
+			assertEquals("aa", corrections.get(0).getSurface());
+		}
+	}
+}
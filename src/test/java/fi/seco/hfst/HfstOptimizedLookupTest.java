@@ -0,0 +1,83 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class HfstOptimizedLookupTest {
+
+	/**
+	 * @return what {@link HfstOptimizedLookup#runTransducer(Transducer)}
+	 *         writes for the input after its prompt, both in the default
+	 *         charset it uses
+	 */
+	static String interactive(Transducer t, String input) throws IOException {
+		InputStream stdin = System.in;
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			System.setIn(new ByteArrayInputStream(input.getBytes()));
+			System.setOut(new PrintStream(out, true));
+			HfstOptimizedLookup.runTransducer(t);
+		} finally {
+			System.setIn(stdin);
+			System.setOut(stdout);
+		}
+		String output = new String(out.toByteArray()).replace(System.getProperty("line.separator"), "\n");
+		return output.substring(output.indexOf('\n') + 1);
+	}
+
+	/**
+	 * @return the output as it reads after a round trip through the default
+	 *         charset, like that of the interactive lookup
+	 */
+	private static String inDefaultCharset(StringWriter out) {
+		return new String(out.toString().getBytes());
+	}
+
+	@Test
+	public void batchesMatchInteractiveLookups() throws Exception {
+		Random r = new Random(19);
+		SinkTransducer t = TransducerLoader.read(new ByteArrayInputStream(TestTransducers.random(r, 8, true).toBytes(false)));
+		CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+		StringBuilder input = new StringBuilder();
+		int unknown = 0;
+		for (int i = 0; i < 500; ++i) {
+			String word;
+			do
+				word = TestTransducers.randomInput(r, 3);
+			while (!encoder.canEncode(word));
+			if (t.analyze(word).isEmpty()) ++unknown;
+			input.append(word).append('\n');
+		}
+		assertTrue("too few unknown words: " + unknown, unknown > 10 && unknown < 490);
+		String expected = interactive(t, input.toString());
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (int block : new int[] { 1, 7, 64, 1000 }) {
+				StringWriter out = new StringWriter();
+				assertEquals(500, HfstOptimizedLookup.runBatch(t, new BufferedReader(new StringReader(input.toString())), out, pool, block));
+				assertEquals("block " + block, expected, inDefaultCharset(out));
+			}
+			StringWriter out = new StringWriter();
+			HfstOptimizedLookup.runBatch(t, new BufferedReader(new StringReader(input.toString())), out, pool);
+			assertEquals(expected, inDefaultCharset(out));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
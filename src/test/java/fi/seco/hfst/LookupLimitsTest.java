@@ -0,0 +1,109 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class LookupLimitsTest {
+
+	/**
+	 * @return a transducer with four analyses for "a" and one for "b"
+	 */
+	static SinkTransducer fourAnalyses() throws IOException {
+		TestTransducers t = new TestTransducers(true);
+		int start = t.state(true, null);
+		int end = t.state(false, 0.0f);
+		for (int output = 1; output <= 4; ++output)
+			t.arc(start, 1, output, end, output);
+		t.arc(start, 2, 2, end, 0.0f);
+		return TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+	}
+
+	@Test
+	public void resultCountIncludesTheAnalysisThatStoppedTheLookup() throws IOException {
+		SinkTransducer tr = fourAnalyses();
+		LookupContext ctx = new LookupContext();
+		FirstResult first = new FirstResult();
+		tr.analyze("a", ctx, first);
+		assertTrue(first.isFound());
+		assertEquals(1, ctx.getResultCount());
+		ResultCounter counter = new ResultCounter(2);
+		tr.analyze("a", ctx, counter);
+		assertEquals(2, counter.getCount());
+		assertEquals(2, ctx.getResultCount());
+		tr.analyze("a", ctx, new ResultCounter());
+		assertEquals(4, ctx.getResultCount());
+		assertFalse(ctx.isTruncated());
+	}
+
+	@Test
+	public void resultListsTellWhetherTruncated() throws IOException {
+		SinkTransducer tr = fourAnalyses();
+		ResultList all = tr.analyze("a");
+		assertEquals(4, all.size());
+		assertFalse(all.isTruncated());
+		((LookupCore) tr).setLimits(new LookupLimits(Long.MAX_VALUE, Integer.MAX_VALUE, 2, 0));
+		ResultList some = tr.analyze("a");
+		assertEquals(2, some.size());
+		assertTrue(some.isTruncated());
+		assertTrue(tr.analyze("xa", 1, 1).isTruncated());
+		assertFalse(tr.analyze("b").isTruncated());
+		((LookupCore) tr).setLimits(new LookupLimits(1, Integer.MAX_VALUE, Integer.MAX_VALUE, 0));
+		ResultList first = tr.analyze("a");
+		assertEquals(1, first.size());
+		assertTrue(first.isTruncated());
+		assertFalse(tr.analyze("c").isTruncated());
+	}
+
+	@Test
+	public void exactlyMaxResultsIsNotTruncated() throws IOException {
+		SinkTransducer tr = fourAnalyses();
+		((LookupCore) tr).setLimits(new LookupLimits(Long.MAX_VALUE, Integer.MAX_VALUE, 4, 0));
+		ResultList all = tr.analyze("a");
+		assertEquals(4, all.size());
+		assertFalse(all.isTruncated());
+		CachingTransducer cache = new CachingTransducer(tr, 10);
+		cache.analyze("a");
+		assertEquals(1, cache.size());
+		((LookupCore) tr).setLimits(new LookupLimits(Long.MAX_VALUE, Integer.MAX_VALUE, 3, 0));
+		LookupContext ctx = new LookupContext();
+		tr.analyze("a", ctx, new ResultCounter());
+		assertEquals(3, ctx.getResultCount());
+		assertTrue(ctx.isTruncated());
+	}
+
+	@Test
+	public void stepsOnlyCountTransitionsFollowed() throws IOException {
+		TestTransducers t = new TestTransducers(false);
+		int start = t.state(true, null);
+		int middle = t.state(true, null);
+		int end = t.state(true, 0.0f);
+		t.arc(start, 1, 1, middle, 0);
+		t.arc(middle, 2, 2, end, 0);
+		SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+		LookupContext ctx = new LookupContext();
+		tr.analyze("ab", ctx, new ResultCounter());
+		assertEquals(2, ctx.getSteps());
+		assertFalse(ctx.isTruncated());
+		ctx.setLimits(new LookupLimits(Long.MAX_VALUE, 1, Integer.MAX_VALUE, 0));
+		tr.analyze("ab", ctx, new ResultCounter());
+		assertEquals(1, ctx.getSteps());
+		assertTrue(ctx.isTruncated());
+	}
+
+	@Test
+	public void bestResultsTellWhetherTruncated() throws IOException {
+		WeightedTransducer tr = (WeightedTransducer) fourAnalyses();
+		ResultList best = tr.analyzeBest("a", 2);
+		assertEquals(2, best.size());
+		assertEquals(1.0f, best.get(0).getWeight(), 0.0f);
+		assertFalse(best.isTruncated());
+		tr.setLimits(new LookupLimits(1, Integer.MAX_VALUE, Integer.MAX_VALUE, 0));
+		assertTrue(tr.analyzeBest("a", 2).isTruncated());
+	}
+}
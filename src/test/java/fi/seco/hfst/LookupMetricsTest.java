@@ -0,0 +1,45 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class LookupMetricsTest {
+
+	@Test
+	public void aggregatesCountsAndStats() throws IOException {
+		TestTransducers t = new TestTransducers(false);
+		int f = t.inputSymbols + TestTransducers.TAGS.length;
+		int setTwo = f + 1, requireOne = f + 2;
+		int start = t.state(true, null);
+		int two = t.state(true, null);
+		int blocked = t.state(true, 0.0f);
+		int end = t.state(true, 0.0f);
+		t.arc(start, setTwo, setTwo, two, 0);
+		t.arc(two, requireOne, requireOne, blocked, 0);
+		t.arc(two, 1, 1, end, 0);
+		t.arc(two, 1, 2, end, 0);
+		t.arc(two, 2, 2, two, 0); // "b" reaches a state that is not final
+		LookupMetrics metrics = new LookupMetrics();
+		InstrumentedTransducer tr = new InstrumentedTransducer(TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false))), metrics);
+		assertEquals(2, tr.analyze("a").size());
+		assertEquals(0, tr.analyze("b").size());
+		LookupContext ctx = new LookupContext();
+		tr.analyze("a", ctx, new FirstResult());
+		assertEquals(3, metrics.getLookupCount());
+		assertEquals(3, metrics.getAnalysisCount());
+		assertEquals(1, metrics.getEmptyCount());
+		// only the list lookups count stats: "a" passes @P.X.TWO@ and fails
+		// @R.X.ONE@ once, "b" twice, and both end at the start state having
+		// no transition for their symbol, "b" also at the non-final state
+		assertEquals(5, metrics.getFlagCount());
+		assertEquals(3, metrics.getFlagFailureCount());
+		assertEquals(3, metrics.getDeadEndCount());
+		metrics.reset();
+		assertEquals(0, metrics.getFlagFailureCount());
+		assertEquals(0, metrics.getDeadEndCount());
+	}
+}
@@ -0,0 +1,281 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.seco.hfst.Transducer.IdResult;
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * Compares the lookup of every loader against the original recursive lookup
+ * on random transducers.
+ */
+public class LookupTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	Map<String, SinkTransducer> loadAll(TestTransducers t, String name) throws IOException {
+		return loadAll(t, name, false);
+	}
+
+	/**
+	 * @return the transducer loaded in each way, by name
+	 */
+	Map<String, SinkTransducer> loadAll(TestTransducers t, String name, boolean hfst3) throws IOException {
+		File file = t.toFile(tmp.getRoot(), name + ".hfst.ol", hfst3);
+		File snapshot = new File(tmp.getRoot(), name + ".snapshot");
+		TransducerSnapshot.write(file, snapshot);
+		Map<String, SinkTransducer> loaded = new LinkedHashMap<String, SinkTransducer>();
+		loaded.put("read", TransducerLoader.read(new ByteArrayInputStream(t.toBytes(hfst3))));
+		loaded.put("map", TransducerLoader.map(file));
+		loaded.put("lazy", TransducerLoader.map(file, true));
+		loaded.put("load", TransducerLoader.load(file));
+		loaded.put("snapshot", TransducerLoader.map(snapshot));
+		return loaded;
+	}
+
+	static String toString(List<Result> results) {
+		return results.toString();
+	}
+
+	@Test
+	public void randomTransducers() throws IOException {
+		Random r = new Random(42);
+		int found = 0;
+		for (int n = 0; n < 200; ++n) {
+			TestTransducers t = TestTransducers.random(r, 2 + r.nextInt(10), n % 2 == 0);
+			boolean hfst3 = n % 3 == 0;
+			ReferenceLookup reference = new ReferenceLookup(t.toBytes(hfst3));
+			Map<String, SinkTransducer> loaded = loadAll(t, "t" + n, hfst3);
+			for (int i = 0; i < 40; ++i) {
+				String input = TestTransducers.randomInput(r, 4);
+				List<Result> results = reference.analyze(input);
+				if (!results.isEmpty()) ++found;
+				for (Map.Entry<String, SinkTransducer> e : loaded.entrySet())
+					assertEquals(e.getKey() + " " + n + " '" + input + "'", toString(results), toString(e.getValue().analyze(input)));
+			}
+		}
+		assertTrue("too few inputs with analyses: " + found, found > 200);
+	}
+
+	@Test
+	public void hfst3Headers() throws IOException {
+		TestTransducers t = TestTransducers.random(new Random(11), 6, true);
+		byte[] plain = t.toBytes(false);
+		byte[] hfst3 = t.toBytes(true);
+		TransducerHeader h = new TransducerHeader(new DataInputStream(new ByteArrayInputStream(hfst3)));
+		assertTrue(h.hasHfst3Header());
+		assertEquals(56 + hfst3.length - plain.length, h.getSize());
+		TransducerHeader header = new TransducerHeader(new DataInputStream(new ByteArrayInputStream(plain)));
+		header.skip_hfst3_header(new DataInputStream(new ByteArrayInputStream(hfst3, 5, hfst3.length - 5)));
+		assertEquals(56, header.getSize());
+		SinkTransducer expected = TransducerLoader.read(new ByteArrayInputStream(plain));
+		for (Map.Entry<String, SinkTransducer> e : loadAll(t, "hfst3", true).entrySet()) {
+			assertEquals(e.getKey(), expected.getAlphabet(), e.getValue().getAlphabet());
+			for (String input : new String[] { "a", "ab", "ch", "cha", "𝔸", "ää" })
+				assertEquals(e.getKey() + " '" + input + "'", toString(expected.analyze(input)), toString(e.getValue().analyze(input)));
+		}
+	}
+
+	/**
+	 * @return the results stably sorted by weight, so that analyses of equal
+	 *         weight stay in the order they were found
+	 */
+	static List<Result> sortedByWeight(List<Result> results) {
+		List<Result> sorted = new ArrayList<Result>(results);
+		Collections.sort(sorted, new Comparator<Result>() {
+			@Override
+			public int compare(Result a, Result b) {
+				return Float.compare(a.getWeight(), b.getWeight());
+			}
+		});
+		return sorted;
+	}
+
+	@Test
+	public void bestResultsMatchSortedLookups() throws IOException {
+		Random r = new Random(23);
+		int found = 0;
+		for (int n = 0; n < 300; ++n) {
+			TestTransducers t = TestTransducers.random(r, 2 + r.nextInt(10), true);
+			WeightedTransducer tr = (WeightedTransducer) TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+			for (int i = 0; i < 20; ++i) {
+				String input = TestTransducers.randomInput(r, 4);
+				List<Result> sorted = sortedByWeight(tr.analyze(input));
+				if (sorted.size() > 1) ++found;
+				float maxWeight = r.nextInt(12) * 0.25f;
+				List<Result> within = new ArrayList<Result>();
+				for (Result result : sorted)
+					if (result.getWeight() <= maxWeight) within.add(result);
+				String where = n + " '" + input + "'";
+				assertEquals(where + " <= " + maxWeight, toString(within), toString(tr.analyzeWithin(input, maxWeight)));
+				for (int best = 1; best <= 3; ++best) {
+					assertEquals(where + " " + best, toString(sorted.subList(0, Math.min(best, sorted.size()))), toString(tr.analyzeBest(input, best)));
+					assertEquals(where + " " + best + " <= " + maxWeight, toString(within.subList(0, Math.min(best, within.size()))), toString(tr.analyzeBest(input, best, maxWeight)));
+				}
+			}
+		}
+		assertTrue("too few ambiguous inputs: " + found, found > 50);
+	}
+
+	/**
+	 * Tables of more than one chunk are decoded by several tasks, reusing the
+	 * buffer of each worker.
+	 */
+	@Test
+	public void parallelLoadsOfLargeTables() throws IOException {
+		Random r = new Random(31);
+		for (boolean weighted : new boolean[] { false, true }) {
+			TestTransducers t = TestTransducers.random(r, 20000, weighted);
+			File file = t.toFile(tmp.getRoot(), "large" + weighted + ".hfst.ol", weighted);
+			SinkTransducer expected = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+			assertTrue(TransducerRegistry.size(expected) > 12l << 16);
+			for (int n = 0; n < 3; ++n) {
+				SinkTransducer loaded = TransducerLoader.load(file);
+				for (int i = 0; i < 200; ++i) {
+					String input = TestTransducers.randomInput(r, 6);
+					assertEquals(input, toString(expected.analyze(input)), toString(loaded.analyze(input)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void idResultsMatchResults() throws IOException {
+		Random r = new Random(13);
+		for (int n = 0; n < 30; ++n) {
+			TestTransducers t = TestTransducers.random(r, 2 + r.nextInt(10), n % 2 == 0);
+			for (Map.Entry<String, SinkTransducer> e : loadAll(t, "ids" + n).entrySet()) {
+				SinkTransducer tr = e.getValue();
+				SymbolTable table = tr.getSymbolTable();
+				assertEquals(tr.getAlphabet().size(), table.size());
+				IdResultCollector collector = new IdResultCollector();
+				LookupContext ctx = new LookupContext();
+				for (int i = 0; i < 20; ++i) {
+					String input = TestTransducers.randomInput(r, 4);
+					List<Result> expected = tr.analyze(input);
+					tr.analyze(input, ctx, collector);
+					List<IdResult> ids = collector.getResults();
+					String where = e.getKey() + " " + n + " '" + input + "'";
+					assertEquals(where, expected.size(), ids.size());
+					for (int j = 0; j < ids.size(); ++j) {
+						StringBuilder surface = new StringBuilder();
+						for (String symbol : expected.get(j).getSymbols())
+							surface.append(symbol);
+						IdResult id = ids.get(j);
+						assertEquals(where, surface.toString(), id.appendTo(table, new StringBuilder()).toString());
+						assertEquals(where, surface.toString(), table.toString(id.getSymbolIds(), id.getSymbolIds().length));
+						assertEquals(where, expected.get(j).getWeight(), id.getWeight(), 0.0f);
+						List<String> symbols = new ArrayList<String>();
+						for (int symbol : id.getSymbolIds())
+							symbols.add(tr.getAlphabet().get(symbol));
+						assertEquals(where, expected.get(j).getSymbols(), symbols);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rangesAndUtf8MatchStrings() throws IOException {
+		Random r = new Random(7);
+		for (int n = 0; n < 50; ++n) {
+			TestTransducers t = TestTransducers.random(r, 2 + r.nextInt(10), n % 2 == 0);
+			SinkTransducer tr = TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+			LookupContext ctx = new LookupContext();
+			for (int i = 0; i < 40; ++i) {
+				String input = TestTransducers.randomInput(r, 4);
+				String expected = toString(tr.analyze(input));
+				assertEquals(expected, toString(tr.analyze("xx" + input + "x", 2, input.length())));
+				ResultCollector collector = new ResultCollector(tr.getAlphabet());
+				byte[] utf8 = ("x" + input).getBytes(TestTransducers.UTF8);
+				tr.analyze(utf8, 1, utf8.length - 1, ctx, collector);
+				assertEquals(expected, toString(collector.getResults()));
+			}
+		}
+	}
+
+	/**
+	 * A state in the transition table only matches its first transitions, and
+	 * not at all if its list starts with epsilon or flag transitions, exactly
+	 * as in the original lookup.
+	 */
+	@Test
+	public void transitionTableStates() throws IOException {
+		for (boolean weighted : new boolean[] { false, true }) {
+			TestTransducers t = new TestTransducers(weighted);
+			int a = 1, b = 2, flag = t.inputSymbols + TestTransducers.TAGS.length; // @P.X.ONE@
+			int start = t.state(true, null);
+			int plain = t.state(false, null);
+			int epsilonFirst = t.state(false, null);
+			int flagFirst = t.state(false, null);
+			int end = t.state(false, 0.5f);
+			t.arc(start, a, a, plain, 1.0f);
+			t.arc(start, b, b, epsilonFirst, 1.0f);
+			t.arc(start, b, b, flagFirst, 2.0f);
+			t.arc(plain, a, a, end, 0.25f);
+			t.arc(plain, b, b, end, 0.25f);
+			t.arc(epsilonFirst, 0, 0, end, 0.25f);
+			t.arc(epsilonFirst, a, a, end, 0.25f);
+			t.arc(flagFirst, flag, flag, end, 0.25f);
+			t.arc(flagFirst, a, a, end, 0.25f);
+			ReferenceLookup reference = new ReferenceLookup(t.toBytes(false));
+			for (Map.Entry<String, SinkTransducer> e : loadAll(t, "tt" + weighted).entrySet())
+				for (String input : new String[] { "aa", "ab", "b", "ba", "a" })
+					assertEquals(e.getKey() + " '" + input + "'", toString(reference.analyze(input)), toString(e.getValue().analyze(input)));
+			SinkTransducer tr = TransducerLoader.map(new File(tmp.getRoot(), "tt" + weighted + ".hfst.ol"));
+			assertEquals(1, tr.analyze("aa").size());
+			assertTrue(tr.analyze("ab").isEmpty());
+			assertEquals(2, tr.analyze("b").size());
+			assertTrue(tr.analyze("ba").isEmpty());
+		}
+	}
+
+	@Test
+	public void flagDiacritics() throws IOException {
+		TestTransducers t = new TestTransducers(false);
+		int f = t.inputSymbols + TestTransducers.TAGS.length;
+		int setOne = f, setTwo = f + 1, requireOne = f + 2, disallowTwo = f + 3;
+		int start = t.state(true, null);
+		int one = t.state(true, null);
+		int two = t.state(false, null);
+		int mid = t.state(true, null);
+		int required = t.state(false, null);
+		int allowed = t.state(true, null);
+		int end = t.state(true, 0.0f);
+		t.arc(start, setOne, setOne, one, 0);
+		t.arc(start, setTwo, setTwo, two, 0);
+		t.arc(one, 1, 1, mid, 0);
+		t.arc(two, 1, 1, mid, 0);
+		t.arc(mid, requireOne, requireOne, required, 0);
+		t.arc(mid, disallowTwo, disallowTwo, allowed, 0);
+		t.arc(required, 2, 2, end, 0);
+		t.arc(allowed, 3, 3, end, 0);
+		ReferenceLookup reference = new ReferenceLookup(t.toBytes(false));
+		for (Map.Entry<String, SinkTransducer> e : loadAll(t, "flags").entrySet())
+			for (String input : new String[] { "ab", "ac", "a", "b" })
+				assertEquals(e.getKey() + " '" + input + "'", toString(reference.analyze(input)), toString(e.getValue().analyze(input)));
+		SinkTransducer tr = TransducerLoader.map(new File(tmp.getRoot(), "flags.hfst.ol"));
+		assertEquals(1, tr.analyze("ab").size());
+		assertEquals(1, tr.analyze("ac").size());
+		List<String> alphabet = new ArrayList<String>(tr.getAlphabet());
+		assertEquals("", alphabet.get(setOne));
+	}
+}
@@ -0,0 +1,204 @@
+package fi.seco.hfst;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.seco.hfst.Transducer.Result;
+
+/**
+ * The recursive lookup of the original weighted and unweighted transducers,
+ * on its own parse of the file, as the reference the lookup engine is tested
+ * against.
+ */
+final class ReferenceLookup {
+
+	private static final int NO_SYMBOL = HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	private static final long START = HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START;
+	private static final long NO_INDEX = HfstOptimizedLookup.NO_TABLE_INDEX;
+
+	final List<String> keyTable = new ArrayList<String>();
+	final int inputSymbols;
+	final boolean weighted;
+	/** Flag diacritic per symbol: operator, feature, value */
+	private final Map<Integer, int[]> flags = new HashMap<Integer, int[]>();
+	private final int features;
+	private final int[] indexInputs;
+	private final long[] indexTargets;
+	private final int[] inputs;
+	private final int[] outputs;
+	private final long[] targets;
+	private final float[] weights;
+
+	ReferenceLookup(byte[] file) {
+		ByteBuffer b = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+		if (file[0] == 'H' && file[1] == 'F' && file[2] == 'S' && file[3] == 'T' && file[4] == 0) b.position(8 + (b.getShort(5) & 0xFFFF));
+		inputSymbols = b.getShort() & 0xFFFF;
+		int symbols = b.getShort() & 0xFFFF;
+		int indexSize = b.getInt();
+		int targetSize = b.getInt();
+		b.getInt();
+		b.getInt();
+		weighted = b.getInt() != 0;
+		b.position(b.position() + 32);
+		Map<String, Integer> featureIds = new HashMap<String, Integer>();
+		Map<String, Integer> valueIds = new HashMap<String, Integer>();
+		valueIds.put("", 0);
+		for (int i = 0; i < symbols; ++i) {
+			int start = b.position();
+			while (b.get() != 0) {}
+			String s = new String(file, start, b.position() - start - 1, TestTransducers.UTF8);
+			if (i > 0 && s.length() > 5 && s.startsWith("@") && s.endsWith("@") && s.charAt(2) == '.') {
+				String[] parts = s.substring(1, s.length() - 1).split("\\.");
+				if (!featureIds.containsKey(parts[1])) featureIds.put(parts[1], featureIds.size());
+				String value = parts.length == 3 ? parts[2] : "";
+				if (!valueIds.containsKey(value)) valueIds.put(value, valueIds.size());
+				flags.put(i, new int[] { "PNRDCU".indexOf(parts[0]), featureIds.get(parts[1]), valueIds.get(value) });
+				s = "";
+			}
+			keyTable.add(i == 0 ? "" : s);
+		}
+		features = featureIds.size();
+		indexInputs = new int[indexSize];
+		indexTargets = new long[indexSize];
+		for (int i = 0; i < indexSize; ++i) {
+			indexInputs[i] = b.getShort() & 0xFFFF;
+			indexTargets[i] = b.getInt() & 0xFFFFFFFFl;
+		}
+		inputs = new int[targetSize];
+		outputs = new int[targetSize];
+		targets = new long[targetSize];
+		weights = new float[targetSize];
+		for (int i = 0; i < targetSize; ++i) {
+			inputs[i] = b.getShort() & 0xFFFF;
+			outputs[i] = b.getShort() & 0xFFFF;
+			targets[i] = b.getInt() & 0xFFFFFFFFl;
+			if (weighted) weights[i] = b.getFloat();
+		}
+	}
+
+	/**
+	 * @return the input symbols of the string by greedy longest match, or
+	 *         null if some character starts none
+	 */
+	int[] tokenize(String input) {
+		List<Integer> symbols = new ArrayList<Integer>();
+		int pos = 0;
+		while (pos < input.length()) {
+			int best = -1, length = 0;
+			for (int s = 1; s < inputSymbols; ++s) {
+				String k = keyTable.get(s);
+				if (k.length() > length && input.startsWith(k, pos)) {
+					best = s;
+					length = k.length();
+				}
+			}
+			if (best < 0) return null;
+			symbols.add(best);
+			pos += length;
+		}
+		int[] r = new int[symbols.size()];
+		for (int i = 0; i < r.length; ++i)
+			r[i] = symbols.get(i);
+		return r;
+	}
+
+	List<Result> analyze(String input) {
+		int[] symbols = tokenize(input);
+		if (symbols == null || symbols.length == 0) return new ArrayList<Result>();
+		return analyze(symbols);
+	}
+
+	/**
+	 * @return the analyses of the input symbols, in the order the original
+	 *         lookup finds them
+	 */
+	List<Result> analyze(int[] symbols) {
+		int[] input = Arrays.copyOf(symbols, symbols.length + 1);
+		input[symbols.length] = NO_SYMBOL;
+		List<Result> results = new ArrayList<Result>();
+		lookup(0, input, 0, new int[256], 0, 0.0f, new int[features], results);
+		return results;
+	}
+
+	private static int pivot(long i) {
+		return (int) (i >= START ? i - START : i);
+	}
+
+	private void lookup(long idx, int[] input, int ip, int[] output, int op, float weight, int[] flagValues, List<Result> results) {
+		int index = pivot(idx);
+		if (idx >= START)
+			epsilons(index + 1, input, ip, output, op, weight, flagValues, results);
+		else if (indexInputs[index + 1] == 0) epsilons(pivot(indexTargets[index + 1]), input, ip, output, op, weight, flagValues, results);
+		if (input[ip] == NO_SYMBOL) {
+			if (idx >= START) {
+				if (index < inputs.length && inputs[index] == NO_SYMBOL && outputs[index] == NO_SYMBOL && targets[index] == 1) note(output, op, weight + weights[index], results);
+			} else if (indexInputs[index] == NO_SYMBOL && indexTargets[index] != NO_INDEX) note(output, op, weighted ? weight + Float.intBitsToFloat((int) indexTargets[index]) : 1.0f, results);
+			return;
+		}
+		int pos;
+		if (idx >= START)
+			pos = index + 1;
+		else if (indexInputs[index + 1 + input[ip]] == input[ip])
+			pos = pivot(indexTargets[index + 1 + input[ip]]);
+		else return;
+		for (; inputs[pos] != NO_SYMBOL && inputs[pos] == input[ip]; ++pos) {
+			output[op] = outputs[pos];
+			lookup(targets[pos], input, ip + 1, output, op + 1, weight + weights[pos], flagValues, results);
+		}
+	}
+
+	private void epsilons(int pos, int[] input, int ip, int[] output, int op, float weight, int[] flagValues, List<Result> results) {
+		for (;; ++pos) {
+			int[] flag = flags.get(inputs[pos]);
+			if (flag != null) {
+				int[] values = apply(flag, flagValues);
+				if (values == null) continue;
+				output[op] = outputs[pos];
+				lookup(targets[pos], input, ip, output, op + 1, weight + weights[pos], values, results);
+			} else if (inputs[pos] == 0) {
+				output[op] = outputs[pos];
+				lookup(targets[pos], input, ip, output, op + 1, weight + weights[pos], flagValues, results);
+			} else return;
+		}
+	}
+
+	/**
+	 * @return the flag values after the operation, or null if it fails
+	 */
+	private static int[] apply(int[] flag, int[] values) {
+		int current = values[flag[1]];
+		int value = flag[2];
+		int[] next = values.clone();
+		switch (flag[0]) {
+		case 0: // P
+			next[flag[1]] = value;
+			return next;
+		case 1: // N
+			next[flag[1]] = -value;
+			return next;
+		case 2: // R
+			return (value == 0 ? current != 0 : current == value) ? next : null;
+		case 3: // D
+			return (value == 0 ? current == 0 : current != value) ? next : null;
+		case 4: // C
+			next[flag[1]] = 0;
+			return next;
+		default: // U
+			if (current != 0 && current != value && current >= 0) return null;
+			next[flag[1]] = value;
+			return next;
+		}
+	}
+
+	private void note(int[] output, int op, float weight, List<Result> results) {
+		List<String> symbols = new ArrayList<String>();
+		for (int i = 0; i < op; ++i)
+			symbols.add(keyTable.get(output[i]));
+		results.add(new Result(symbols, weighted ? weight : 1.0f));
+	}
+}
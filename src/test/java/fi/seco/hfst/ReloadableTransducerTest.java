@@ -0,0 +1,171 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadableTransducerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	/**
+	 * @return a transducer file analyzing "a" as the given output symbol
+	 */
+	File version(String name, int output) throws IOException {
+		TestTransducers t = new TestTransducers(false);
+		int start = t.state(true, null);
+		int end = t.state(false, 0.0f);
+		t.arc(start, 1, output, end, 0);
+		return t.toFile(tmp.getRoot(), name, false);
+	}
+
+	/**
+	 * Holds up a lookup at its first analysis until let go.
+	 */
+	static final class BlockingSink implements ResultSink {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile int symbol;
+
+		@Override
+		public boolean analysis(int[] symbols, int length, float weight) {
+			symbol = symbols[0];
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+
+		@Override
+		public float getWeightLimit() {
+			return Float.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * @return a thread looking up "a" into the sink, once it has reached the
+	 *         first analysis
+	 */
+	static Thread blockedLookup(final SinkTransducer tr, final BlockingSink sink) throws InterruptedException {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				tr.analyze("a", new LookupContext(), sink);
+			}
+		};
+		t.start();
+		assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+		return t;
+	}
+
+	private static String analyses(SinkTransducer tr) {
+		return tr.analyze("a").toString();
+	}
+
+	private static Throwable failure(Future<?> f) throws InterruptedException, TimeoutException {
+		try {
+			f.get(5, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+		fail("Reload succeeded");
+		return null;
+	}
+
+	@Test
+	public void releasesTheOldVersionAfterItsLastLookup() throws Exception {
+		File v1 = version("v1.hfst.ol", 1), v2 = version("v2.hfst.ol", 2), v3 = version("v3.hfst.ol", 3);
+		ReloadableTransducer tr = new ReloadableTransducer(v1);
+		try {
+			BlockingSink sink = new BlockingSink();
+			Thread lookup = blockedLookup(tr, sink);
+			SinkTransducer second = tr.reload(v2).get(5, TimeUnit.SECONDS);
+			assertEquals(analyses(second), analyses(tr));
+			assertEquals(v2, tr.getFile());
+			// the next reload waits for the first version to be released
+			Future<SinkTransducer> third = tr.reload(v3);
+			try {
+				third.get(200, TimeUnit.MILLISECONDS);
+				fail("Reloaded while the old version was in use");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			sink.release.countDown();
+			lookup.join();
+			assertEquals(1, sink.symbol);
+			assertEquals(analyses(third.get(5, TimeUnit.SECONDS)), analyses(tr));
+			assertEquals(v3, tr.getFile());
+		} finally {
+			tr.close();
+		}
+	}
+
+	@Test
+	public void failedReloadKeepsTheCurrentVersion() throws Exception {
+		File v1 = version("v1.hfst.ol", 1);
+		ReloadableTransducer tr = new ReloadableTransducer(v1);
+		try {
+			String before = analyses(tr);
+			assertTrue(failure(tr.reload(new File(tmp.getRoot(), "missing.hfst.ol"))) instanceof IOException);
+			assertEquals(before, analyses(tr));
+			assertEquals(v1, tr.getFile());
+		} finally {
+			tr.close();
+		}
+	}
+
+	@Test
+	public void closeDiscardsTheReloadInProgress() throws Exception {
+		File v1 = version("v1.hfst.ol", 1), v2 = version("v2.hfst.ol", 2), v3 = version("v3.hfst.ol", 3);
+		ReloadableTransducer tr = new ReloadableTransducer(v1);
+		BlockingSink sink = new BlockingSink();
+		Thread lookup = blockedLookup(tr, sink);
+		tr.reload(v2).get(5, TimeUnit.SECONDS);
+		Future<SinkTransducer> pending = tr.reload(v3);
+		tr.close();
+		sink.release.countDown();
+		lookup.join();
+		assertEquals(1, sink.symbol);
+		assertTrue(failure(pending) instanceof IllegalStateException);
+		assertEquals(v2, tr.getFile());
+	}
+
+	@Test
+	public void lookupsAfterCloseFail() throws Exception {
+		ReloadableTransducer tr = new ReloadableTransducer(version("v1.hfst.ol", 1));
+		BlockingSink sink = new BlockingSink();
+		Thread lookup = blockedLookup(tr, sink);
+		tr.close();
+		tr.close();
+		sink.release.countDown();
+		lookup.join();
+		assertEquals(1, sink.symbol);
+		try {
+			tr.analyze("a");
+			fail("Lookup after close");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Future<SinkTransducer> reload = tr.reload();
+		assertTrue(reload.isDone());
+		assertFalse(reload.isCancelled());
+		assertTrue(failure(reload) instanceof IllegalStateException);
+	}
+}
@@ -0,0 +1,242 @@
+package fi.seco.hfst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates small random transducers in the optimized-lookup format, with a
+ * mix of states in the index table and in the transition table, epsilon and
+ * flag diacritic transitions listed before the others, multicharacter and
+ * supplementary input symbols, and optionally an HFST3 header.
+ */
+final class TestTransducers {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Input symbols; "c" + "h" and "ch" spell the same string */
+	static final String[] LETTERS = { "a", "b", "c", "h", "ch", "ä", "𝔸" };
+	static final String[] TAGS = { "+N", "+V" };
+	static final String[] FLAGS = { "@P.X.ONE@", "@P.X.TWO@", "@R.X.ONE@", "@D.X.TWO@", "@C.X@", "@U.Y.ONE@", "@N.Y.ONE@", "@R.Y@", "@D.Y@" };
+
+	static final class Arc {
+		final int input;
+		final int output;
+		final int target;
+		final float weight;
+
+		Arc(int input, int output, int target, float weight) {
+			this.input = input;
+			this.output = output;
+			this.target = target;
+			this.weight = weight;
+		}
+	}
+
+	final List<String> symbols = new ArrayList<String>();
+	final int inputSymbols;
+	final boolean weighted;
+	final List<List<Arc>> arcs = new ArrayList<List<Arc>>();
+	/** Final weight per state, or null if not final */
+	final List<Float> finals = new ArrayList<Float>();
+	/** Whether each state is stored in the index table */
+	final List<Boolean> indexed = new ArrayList<Boolean>();
+
+	TestTransducers(boolean weighted) {
+		this.weighted = weighted;
+		symbols.add("@_EPSILON_SYMBOL_@");
+		for (String l : LETTERS)
+			symbols.add(l);
+		inputSymbols = symbols.size();
+		for (String t : TAGS)
+			symbols.add(t);
+		for (String f : FLAGS)
+			symbols.add(f);
+	}
+
+	boolean isFlag(int symbol) {
+		return symbol >= inputSymbols + TAGS.length;
+	}
+
+	int state(boolean index, Float finalWeight) {
+		arcs.add(new ArrayList<Arc>());
+		finals.add(finalWeight);
+		indexed.add(index);
+		return arcs.size() - 1;
+	}
+
+	void arc(int from, int input, int output, int to, float weight) {
+		arcs.get(from).add(new Arc(input, output, to, weight));
+	}
+
+	/**
+	 * @return a random transducer whose epsilon and flag transitions only
+	 *         lead to later states, so that it has no epsilon cycles
+	 */
+	static TestTransducers random(Random r, int states, boolean weighted) {
+		TestTransducers t = new TestTransducers(weighted);
+		for (int s = 0; s < states; ++s)
+			t.state(s == 0 || r.nextBoolean(), r.nextInt(3) == 0 || s == states - 1 ? quarter(r) : null);
+		for (int s = 0; s < states; ++s) {
+			int n = r.nextInt(5);
+			for (int i = 0; i < n; ++i) {
+				int kind = r.nextInt(7);
+				int output = r.nextInt(4) == 0 ? t.inputSymbols + r.nextInt(TAGS.length) : r.nextInt(t.inputSymbols);
+				if (kind < 2 && s + 1 < states) { // epsilon or flag
+					int target = s + 1 + r.nextInt(states - s - 1);
+					if (kind == 0)
+						t.arc(s, 0, output, target, quarter(r));
+					else {
+						int flag = t.inputSymbols + TAGS.length + r.nextInt(FLAGS.length);
+						t.arc(s, flag, flag, target, quarter(r));
+					}
+				} else t.arc(s, 1 + r.nextInt(t.inputSymbols - 1), output, r.nextInt(states), quarter(r));
+			}
+		}
+		return t;
+	}
+
+	private static float quarter(Random r) {
+		return r.nextInt(8) * 0.25f;
+	}
+
+	/**
+	 * @return the transitions of the state, epsilons and flags first in their
+	 *         original order, then by input symbol
+	 */
+	private List<Arc> sorted(int state) {
+		List<Arc> sorted = new ArrayList<Arc>();
+		for (Arc a : arcs.get(state))
+			if (a.input == 0 || isFlag(a.input)) sorted.add(a);
+		for (int symbol = 1; symbol < inputSymbols; ++symbol)
+			for (Arc a : arcs.get(state))
+				if (a.input == symbol) sorted.add(a);
+		return sorted;
+	}
+
+	byte[] toBytes(boolean hfst3) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			write(out, hfst3);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	File toFile(File dir, String name, boolean hfst3) throws IOException {
+		File f = new File(dir, name);
+		try (OutputStream out = new FileOutputStream(f)) {
+			write(out, hfst3);
+		}
+		return f;
+	}
+
+	void write(OutputStream out, boolean hfst3) throws IOException {
+		int states = arcs.size();
+		int block = inputSymbols + 1;
+		// index table bases of indexed states, transition table positions of the others
+		long[] address = new long[states];
+		int indexSize = 0;
+		for (int s = 0; s < states; ++s)
+			if (indexed.get(s)) {
+				address[s] = indexSize;
+				indexSize += block;
+			}
+		List<long[]> table = new ArrayList<long[]>();
+		long[][] groupStart = new long[states][inputSymbols];
+		for (int s = 0; s < states; ++s) {
+			List<Arc> sorted = sorted(s);
+			if (indexed.get(s)) {
+				for (int i = 0; i < sorted.size(); ++i) {
+					Arc a = sorted.get(i);
+					int group = isFlag(a.input) ? 0 : a.input;
+					if (i == 0 || group != (isFlag(sorted.get(i - 1).input) ? 0 : sorted.get(i - 1).input)) groupStart[s][group] = table.size() + 1;
+					table.add(null);
+				}
+				table.add(null);
+			} else {
+				address[s] = HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START + table.size();
+				for (int i = 0; i <= sorted.size() + 1; ++i)
+					table.add(null);
+			}
+		}
+		table.add(null);
+
+		int transitionCount = 0;
+		ByteBuffer entries = ByteBuffer.allocate(table.size() * (weighted ? 12 : 8)).order(ByteOrder.LITTLE_ENDIAN);
+		for (int s = 0; s < states; ++s) {
+			List<Arc> sorted = sorted(s);
+			if (!indexed.get(s)) {
+				Float f = finals.get(s);
+				entry(entries, HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_SYMBOL_NUMBER, f != null ? 1 : HfstOptimizedLookup.NO_TABLE_INDEX, f != null ? f : 0.0f);
+			}
+			for (Arc a : sorted) {
+				entry(entries, a.input, a.output, address[a.target], a.weight);
+				++transitionCount;
+			}
+			entry(entries, HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_TABLE_INDEX, 0.0f);
+		}
+		entry(entries, HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_SYMBOL_NUMBER, HfstOptimizedLookup.NO_TABLE_INDEX, 0.0f);
+
+		ByteBuffer index = ByteBuffer.allocate(indexSize * 6).order(ByteOrder.LITTLE_ENDIAN);
+		for (int s = 0; s < states; ++s) {
+			if (!indexed.get(s)) continue;
+			Float f = finals.get(s);
+			index.putShort((short) HfstOptimizedLookup.NO_SYMBOL_NUMBER);
+			index.putInt(f == null ? (int) HfstOptimizedLookup.NO_TABLE_INDEX : weighted ? Float.floatToIntBits(f) : 1);
+			for (int symbol = 0; symbol < inputSymbols; ++symbol) {
+				long start = groupStart[s][symbol];
+				index.putShort((short) (start == 0 ? HfstOptimizedLookup.NO_SYMBOL_NUMBER : symbol));
+				index.putInt((int) (start == 0 ? HfstOptimizedLookup.NO_TABLE_INDEX : HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START + start - 1));
+			}
+		}
+
+		if (hfst3) {
+			byte[] properties = ("version\0" + "3.3\0" + "type\0" + (weighted ? "HFST_OLW\0" : "HFST_OL\0") + "name\0" + "test\0").getBytes(UTF8);
+			out.write("HFST\0".getBytes(UTF8));
+			out.write(properties.length & 0xFF);
+			out.write(properties.length >>> 8);
+			out.write(0);
+			out.write(properties);
+		}
+		ByteBuffer header = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+		header.putShort((short) inputSymbols).putShort((short) symbols.size());
+		header.putInt(indexSize).putInt(table.size()).putInt(states).putInt(transitionCount);
+		int[] properties = { weighted ? 1 : 0, 0, 0, 0, 1, 1, 1, 0, 0 };
+		for (int p : properties)
+			header.putInt(p);
+		out.write(header.array());
+		for (String symbol : symbols) {
+			out.write(symbol.getBytes(UTF8));
+			out.write(0);
+		}
+		out.write(index.array());
+		out.write(entries.array());
+	}
+
+	private void entry(ByteBuffer entries, int input, int output, long target, float weight) {
+		entries.putShort((short) input).putShort((short) output).putInt((int) target);
+		if (weighted) entries.putFloat(weight);
+	}
+
+	/**
+	 * @return a random string of input symbols, sometimes with a character
+	 *         that is no input symbol
+	 */
+	static String randomInput(Random r, int maxLength) {
+		StringBuilder sb = new StringBuilder();
+		int length = r.nextInt(maxLength + 1);
+		for (int i = 0; i < length; ++i)
+			sb.append(r.nextInt(40) == 0 ? "x" : LETTERS[r.nextInt(LETTERS.length)]);
+		return sb.toString();
+	}
+}
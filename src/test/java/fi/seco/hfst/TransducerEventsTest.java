@@ -0,0 +1,95 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.seco.hfst.TransducerEvents.LoadPhase;
+
+public class TransducerEventsTest {
+
+	static final class Recorder extends TransducerEvents {
+		final Map<LoadPhase, Long> bytes = new EnumMap<LoadPhase, Long>(LoadPhase.class);
+		final List<Integer> analyses = new ArrayList<Integer>();
+
+		@Override
+		public Object loadStarted(LoadPhase phase) {
+			return phase;
+		}
+
+		@Override
+		public synchronized void loadFinished(Object handle, LoadPhase phase, long size) {
+			bytes.put(phase, size);
+		}
+
+		@Override
+		public Object lookupStarted() {
+			return this;
+		}
+
+		@Override
+		public synchronized void lookupFinished(Object handle, int inputLength, LookupContext ctx) {
+			analyses.add(ctx.getResultCount());
+		}
+	}
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private TransducerEvents previous;
+	private Recorder recorder;
+
+	@Before
+	public void install() {
+		previous = TransducerEvents.getInstalled();
+		recorder = new Recorder();
+		TransducerEvents.install(recorder);
+	}
+
+	@After
+	public void uninstall() {
+		TransducerEvents.install(previous);
+	}
+
+	@Test
+	public void headerBytesIncludeTheHfst3Header() throws IOException {
+		TestTransducers t = TestTransducers.random(new Random(5), 6, false);
+		int hfst3 = t.toBytes(true).length - t.toBytes(false).length;
+		TransducerLoader.read(new ByteArrayInputStream(t.toBytes(false)));
+		assertEquals(56, (long) recorder.bytes.get(LoadPhase.HEADER));
+		TransducerLoader.read(new ByteArrayInputStream(t.toBytes(true)));
+		assertEquals(56 + hfst3, (long) recorder.bytes.get(LoadPhase.HEADER));
+		recorder.bytes.clear();
+		TransducerLoader.load(t.toFile(tmp.getRoot(), "hfst3.hfst.ol", true));
+		assertEquals(56 + hfst3, (long) recorder.bytes.get(LoadPhase.HEADER));
+	}
+
+	@Test
+	public void lookupsReportEveryAnalysisPassed() throws IOException {
+		SinkTransducer tr = LookupLimitsTest.fourAnalyses();
+		LookupContext ctx = new LookupContext();
+		tr.analyze("a", ctx, new FirstResult());
+		tr.analyze("a", ctx, new ResultCounter());
+		assertEquals(2, recorder.analyses.size());
+		assertEquals(1, (int) recorder.analyses.get(0));
+		assertEquals(4, (int) recorder.analyses.get(1));
+	}
+
+	@Test
+	public void lookupsOfNoInterestAreNotFinished() {
+		TransducerEvents.finishLookup(null, 1, new LookupContext());
+		assertEquals(0, recorder.analyses.size());
+	}
+}
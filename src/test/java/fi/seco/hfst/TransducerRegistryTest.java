@@ -0,0 +1,165 @@
+package fi.seco.hfst;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.seco.hfst.TransducerRegistry.Lease;
+
+public class TransducerRegistryTest {
+
+	/**
+	 * Serves the same transducer under each name as a resource, counting the
+	 * loads and failing as many of them as set to fail.
+	 */
+	static final class Resources extends ClassLoader {
+		final Set<String> names = new HashSet<String>();
+		final byte[] bytes = TestTransducers.random(new Random(11), 4, false).toBytes(false);
+		final AtomicInteger loads = new AtomicInteger();
+		volatile int failures;
+		volatile CountDownLatch gate;
+
+		Resources(String... names) {
+			super(null);
+			this.names.addAll(Arrays.asList(names));
+		}
+
+		@Override
+		public InputStream getResourceAsStream(String name) {
+			loads.incrementAndGet();
+			try {
+				if (gate != null) gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (failures > 0) {
+				--failures;
+				return null;
+			}
+			if (!names.contains(name)) return null;
+			return new ByteArrayInputStream(bytes);
+		}
+	}
+
+	@Test
+	public void concurrentAcquisitionsShareOneLoad() throws Exception {
+		final TransducerRegistry registry = new TransducerRegistry();
+		final Resources resources = new Resources("a");
+		resources.gate = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			final CountDownLatch started = new CountDownLatch(8);
+			List<Future<Lease>> leases = new ArrayList<Future<Lease>>();
+			for (int i = 0; i < 8; ++i)
+				leases.add(threads.submit(new Callable<Lease>() {
+					@Override
+					public Lease call() throws IOException {
+						started.countDown();
+						return registry.acquire("a", resources);
+					}
+				}));
+			started.await();
+			Thread.sleep(100); // let the acquirers reach the load in progress
+			resources.gate.countDown();
+			SinkTransducer first = leases.get(0).get(5, TimeUnit.SECONDS).get();
+			for (Future<Lease> lease : leases)
+				assertSame(first, lease.get(5, TimeUnit.SECONDS).get());
+			assertEquals(1, resources.loads.get());
+			assertEquals(1, registry.size());
+			for (Future<Lease> lease : leases)
+				lease.get().close();
+			assertEquals(0, registry.size());
+			assertEquals(0, registry.getLoadedSize());
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+	@Test
+	public void closingALeaseAgainHasNoEffect() throws IOException {
+		TransducerRegistry registry = new TransducerRegistry();
+		Resources resources = new Resources("a");
+		Lease first = registry.acquire("a", resources);
+		Lease second = registry.acquire("a", resources);
+		first.close();
+		first.close();
+		assertEquals(1, registry.size());
+		assertSame(second.get(), registry.acquire("a", resources).get());
+		assertEquals(1, resources.loads.get());
+	}
+
+	@Test
+	public void evictsLeastRecentlyReleasedBeyondTheBudget() throws IOException {
+		Resources resources = new Resources("a", "b", "c");
+		long size = TransducerRegistry.size(TransducerLoader.read(new ByteArrayInputStream(resources.bytes)));
+		TransducerRegistry registry = new TransducerRegistry(2 * size);
+		Lease a = registry.acquire("a", resources);
+		Lease b = registry.acquire("b", resources);
+		Lease c = registry.acquire("c", resources);
+		// in use, so kept over the budget
+		assertEquals(3, registry.size());
+		assertEquals(3 * size, registry.getLoadedSize());
+		a.close();
+		assertEquals(2, registry.size());
+		b.close();
+		c.close();
+		assertEquals(2, registry.size());
+		assertEquals(2 * size, registry.getLoadedSize());
+		// "b" and "c" are kept, "a" was dropped on release
+		registry.acquire("b", resources).close();
+		registry.acquire("c", resources).close();
+		assertEquals(3, resources.loads.get());
+		// loading "a" again evicts "b", released before "c"
+		registry.acquire("a", resources).close();
+		assertEquals(4, resources.loads.get());
+		assertEquals(2, registry.size());
+		registry.acquire("c", resources).close();
+		assertEquals(4, resources.loads.get());
+		registry.acquire("b", resources).close();
+		assertEquals(5, resources.loads.get());
+	}
+
+	@Test
+	public void failedLoadsAreRetried() throws IOException {
+		TransducerRegistry registry = new TransducerRegistry(Long.MAX_VALUE);
+		Resources resources = new Resources("a");
+		resources.failures = 1;
+		try {
+			registry.acquire("a", resources);
+			fail("Loaded a missing resource");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertEquals(0, registry.size());
+		assertEquals(0, registry.getLoadedSize());
+		Lease lease = registry.acquire("a", resources);
+		assertEquals(2, resources.loads.get());
+		assertEquals(1, registry.size());
+		Lease again = registry.acquire("a", resources);
+		assertSame(lease.get(), again.get());
+		assertNotNull(lease.get());
+		lease.close();
+		again.close();
+	}
+}